@@ -0,0 +1,155 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer.benchmark;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mysema.query.types.Predicate;
+import com.vaadin.addon.jpacontainer.QuerydslEntityProvider;
+import com.vaadin.addon.jpacontainer.QuerydslJPAContainer;
+import com.vaadin.addon.jpacontainer.QuerydslJPAContainerFactory;
+import com.vaadin.addon.jpacontainer.testdata.Person;
+import com.vaadin.addon.jpacontainer.testdata.QPerson;
+import com.vaadin.addon.jpacontainer.testdata.ScalableDataGenerator;
+
+/**
+ * Measures the hot paths of {@link QuerydslJPAContainer} against the HSQLDB
+ * eclipselink-in-memory persistence unit
+ *
+ * @author tiwe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ContainerBenchmark {
+
+    private static final QPerson person = QPerson.person;
+
+    @Param({ "10000", "100000" })
+    private int rows;
+
+    /**
+     * caching for the default caching provider, native for the Querydsl provider and keyset for
+     * the Querydsl provider with keyset pagination
+     */
+    @Param({ "caching", "native", "keyset" })
+    private String provider;
+
+    private EntityManagerFactory entityManagerFactory;
+
+    private EntityManager entityManager;
+
+    private QuerydslJPAContainer<Person> container;
+
+    private final Predicate filter = person.lastName.eq("Smith").and(person.primitiveDouble.gt(0.5));
+
+    private final Random random = new Random(1);
+
+    private int index;
+
+    private boolean sorted;
+
+    private int size;
+
+    private Object[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, Object> properties = ScalableDataGenerator.batchWriting(1000);
+        properties.put("eclipselink.logging.level", "WARNING");
+        entityManagerFactory = Persistence.createEntityManagerFactory("eclipselink-in-memory", properties);
+        EntityManager seeding = entityManagerFactory.createEntityManager();
+        new ScalableDataGenerator().skills(20, 3).managers(10, 3).persist(seeding, rows);
+        seeding.close();
+
+        entityManager = entityManagerFactory.createEntityManager();
+        if (provider.equals("caching")) {
+            container = QuerydslJPAContainerFactory.make(Person.class, entityManager);
+        } else {
+            container = QuerydslJPAContainerFactory.makeNative(Person.class, entityManager);
+            ((QuerydslEntityProvider<Person>) container.getEntityProvider())
+                    .setKeysetPagination(provider.equals("keyset"));
+        }
+        // primitives and identifiers can't be null, so the keyset variant seeks instead of using offsets
+        container.sort(person.primitiveDouble.asc(), person.id.asc());
+        size = container.size();
+        ids = new Object[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = container.getIdByIndex(random.nextInt(size));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        entityManager.close();
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    public Object addRemoveContainerFilter() {
+        container.addContainerFilter(filter);
+        container.removeContainerFilter(filter);
+        return container;
+    }
+
+    @Benchmark
+    public Object sort() {
+        // alternate between two orders, so each invocation changes the sorting
+        sorted = !sorted;
+        if (sorted) {
+            container.sort(person.address.street.asc(), person.lastName.desc());
+        } else {
+            container.sort(person.primitiveDouble.asc(), person.id.asc());
+        }
+        return container.getIdByIndex(0);
+    }
+
+    @Benchmark
+    public Object scroll() {
+        index = (index + 1) % size;
+        return container.getIdByIndex(index);
+    }
+
+    @Benchmark
+    public Object getItem() {
+        return container.getItem(ids[random.nextInt(ids.length)]);
+    }
+
+}
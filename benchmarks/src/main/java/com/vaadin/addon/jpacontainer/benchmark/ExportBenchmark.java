@@ -0,0 +1,126 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaadin.addon.jpacontainer.DelimitedExporter;
+import com.vaadin.addon.jpacontainer.EntityItem;
+import com.vaadin.addon.jpacontainer.QuerydslJPAContainer;
+import com.vaadin.addon.jpacontainer.QuerydslJPAContainerFactory;
+import com.vaadin.addon.jpacontainer.testdata.Person;
+import com.vaadin.addon.jpacontainer.testdata.QPerson;
+import com.vaadin.addon.jpacontainer.testdata.ScalableDataGenerator;
+
+/**
+ * Measures the export of {@link QuerydslJPAContainer} contents in rows per second against the
+ * HSQLDB eclipselink-in-memory persistence unit, via {@link DelimitedExporter} and via paging
+ * through the container items as the baseline
+ *
+ * @author tiwe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExportBenchmark {
+
+    private static final int ROWS = 100000;
+
+    private static final QPerson person = QPerson.person;
+
+    private static final OutputStream NULL = new OutputStream() {
+        @Override
+        public void write(int b) {}
+        @Override
+        public void write(byte[] b, int off, int len) {}
+    };
+
+    private EntityManagerFactory entityManagerFactory;
+
+    private EntityManager entityManager;
+
+    private QuerydslJPAContainer<Person> container;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, Object> properties = ScalableDataGenerator.batchWriting(1000);
+        properties.put("eclipselink.logging.level", "WARNING");
+        entityManagerFactory = Persistence.createEntityManagerFactory("eclipselink-in-memory", properties);
+        EntityManager seeding = entityManagerFactory.createEntityManager();
+        new ScalableDataGenerator().managers(10, 3).persist(seeding, ROWS);
+        seeding.close();
+
+        entityManager = entityManagerFactory.createEntityManager();
+        container = QuerydslJPAContainerFactory.makeNative(Person.class, entityManager);
+        container.sort(person.lastName.asc(), person.firstName.asc());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        entityManager.close();
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long csv() throws IOException {
+        return DelimitedExporter.CSV.export(container, NULL, person.id, person.firstName, person.lastName,
+                person.address.street, person.manager.lastName, person.dateOfBirth, person.primitiveDouble);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int pagedItems() {
+        StringBuilder builder = new StringBuilder();
+        int size = container.size();
+        for (int i = 0; i < size; i++) {
+            EntityItem<Person> item = container.getItem(container.getIdByIndex(i));
+            Person p = item.getEntity();
+            builder.setLength(0);
+            builder.append(p.getId()).append(',').append(p.getFirstName()).append(',').append(p.getLastName())
+                    .append(',').append(p.getAddress().getStreet())
+                    .append(',').append(p.getManager() != null ? p.getManager().getLastName() : "")
+                    .append(',').append(p.getDateOfBirth()).append(',').append(p.getPrimitiveDouble());
+        }
+        return builder.length();
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mysema.query.types.ExpressionUtils;
+import com.mysema.query.types.Predicate;
+import com.mysema.query.types.path.NumberPath;
+import com.mysema.query.types.path.PathBuilder;
+import com.mysema.query.types.path.StringPath;
+import com.vaadin.addon.jpacontainer.VaadinExpressionVisitor;
+
+/**
+ * Compares the operator dispatch of {@link VaadinExpressionVisitor} against the former if/else
+ * chain for deep AND/OR trees
+ * 
+ * @author tiwe
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class VaadinExpressionVisitorBenchmark {
+
+    @Param({ "50", "200" })
+    private int predicates;
+
+    private Predicate predicate;
+
+    private final IfElseExpressionVisitor chain = new IfElseExpressionVisitor();
+
+    private final VaadinExpressionVisitor table = VaadinExpressionVisitor.DEFAULT;
+
+    @Setup
+    public void setUp() {
+        predicate = createPredicate(predicates);
+    }
+
+    static Predicate createPredicate(int size) {
+        PathBuilder<Object> entity = new PathBuilder<Object>(Object.class, "person");
+        StringPath firstName = entity.getString("firstName");
+        StringPath lastName = entity.getString("lastName");
+        NumberPath<Integer> age = entity.getNumber("age", Integer.class);
+        Predicate predicate = null;
+        for (int i = 0; i < size; i++) {
+            Predicate clause;
+            switch (i % 5) {
+            case 0:  clause = firstName.eq("Name " + i); break;
+            case 1:  clause = lastName.containsIgnoreCase("son"); break;
+            case 2:  clause = age.between(i, i + 10); break;
+            case 3:  clause = age.loe(i).not(); break;
+            default: clause = age.goe(i);
+            }
+            if (predicate == null) {
+                predicate = clause;
+            } else if (i % 2 == 0) {
+                predicate = ExpressionUtils.and(predicate, clause);
+            } else {
+                predicate = ExpressionUtils.or(predicate, clause);
+            }
+        }
+        return predicate;
+    }
+
+    @Benchmark
+    public Object ifElseChain() {
+        return predicate.accept(chain, null);
+    }
+
+    @Benchmark
+    public Object translatorTable() {
+        return predicate.accept(table, null);
+    }
+
+}
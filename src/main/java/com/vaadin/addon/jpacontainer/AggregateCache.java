@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.mysema.query.Tuple;
+import com.mysema.query.types.Expression;
+import com.mysema.query.types.Predicate;
+
+/**
+ * AggregateCache caches the result rows of aggregate queries keyed by the set of predicates, the
+ * group by expressions and the aggregate expressions they were computed for. The least recently
+ * used results are evicted.
+ *
+ * @author tiwe
+ *
+ */
+final class AggregateCache {
+
+    private static final int MAX_SIZE = 64;
+
+    private static final class Key {
+
+        private final ImmutableSet<Predicate> where;
+
+        private final ImmutableList<Expression<?>> groupBy;
+
+        private final ImmutableList<Expression<?>> aggregates;
+
+        Key(Predicate[] where, List<? extends Expression<?>> groupBy, Expression<?>[] aggregates) {
+            this.where = ImmutableSet.copyOf(where);
+            this.groupBy = ImmutableList.<Expression<?>>copyOf(groupBy);
+            this.aggregates = ImmutableList.<Expression<?>>copyOf(aggregates);
+        }
+
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            } else if (o instanceof Key) {
+                Key other = (Key) o;
+                return where.equals(other.where) && groupBy.equals(other.groupBy)
+                        && aggregates.equals(other.aggregates);
+            } else {
+                return false;
+            }
+        }
+
+        public int hashCode() {
+            return Objects.hashCode(where, groupBy, aggregates);
+        }
+
+    }
+
+    private final Map<Key, List<Tuple>> results = new LinkedHashMap<Key, List<Tuple>>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, List<Tuple>> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /**
+     * Get the cached rows of the given query
+     *
+     * @param where
+     * @param groupBy
+     * @param aggregates
+     * @return the rows or null, if they are not cached
+     */
+    @Nullable
+    List<Tuple> get(Predicate[] where, List<? extends Expression<?>> groupBy, Expression<?>[] aggregates) {
+        return results.get(new Key(where, groupBy, aggregates));
+    }
+
+    void put(Predicate[] where, List<? extends Expression<?>> groupBy, Expression<?>[] aggregates,
+            List<Tuple> rows) {
+        results.put(new Key(where, groupBy, aggregates), rows);
+    }
+
+    void clear() {
+        results.clear();
+    }
+
+}
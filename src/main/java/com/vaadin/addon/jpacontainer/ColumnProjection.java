@@ -0,0 +1,104 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.mysema.query.jpa.impl.JPAQuery;
+import com.mysema.query.types.Expression;
+import com.mysema.query.types.path.PathBuilder;
+
+/**
+ * ColumnProjection projects the given value properties of an entity into flat result columns,
+ * e.g. for exports. To-one associations on the property paths are left joined, so that rows with
+ * null associations are retained.
+ *
+ * @author tiwe
+ *
+ * @param <T>
+ */
+final class ColumnProjection<T> {
+
+    private final Expression<?>[] columns;
+
+    private final List<PathBuilder<Object>> joinTargets = Lists.newArrayList();
+
+    private final List<PathBuilder<Object>> joinAliases = Lists.newArrayList();
+
+    ColumnProjection(PathBuilder<T> entity, Metamodel metamodel, String... propertyIds) {
+        Map<String, PathBuilder<Object>> aliases = Maps.newHashMap();
+        columns = new Expression<?>[propertyIds.length];
+        for (int i = 0; i < propertyIds.length; i++) {
+            String[] names = propertyIds[i].split("\\.");
+            ManagedType<?> type = metamodel.managedType(entity.getType());
+            PathBuilder<?> source = entity;
+            StringBuilder path = new StringBuilder();
+            for (int j = 0; j < names.length - 1; j++) {
+                Attribute<?, ?> attribute = type.getAttribute(names[j]);
+                path.append(names[j]).append('_');
+                if (attribute.isCollection()) {
+                    throw new IllegalArgumentException(propertyIds[i] + " is collection valued");
+                } else if (attribute.isAssociation()) {
+                    PathBuilder<Object> alias = aliases.get(path.toString());
+                    if (alias == null) {
+                        alias = new PathBuilder<Object>(attribute.getJavaType(), path.toString());
+                        aliases.put(path.toString(), alias);
+                        joinTargets.add(source.get(names[j]));
+                        joinAliases.add(alias);
+                    }
+                    source = alias;
+                } else if (attribute.getPersistentAttributeType() == PersistentAttributeType.EMBEDDED) {
+                    source = source.get(names[j]);
+                } else {
+                    throw new IllegalArgumentException(propertyIds[i] + " is not a property path");
+                }
+                type = metamodel.managedType(attribute.getJavaType());
+            }
+            Attribute<?, ?> attribute = type.getAttribute(names[names.length - 1]);
+            if (attribute.isAssociation() || attribute.isCollection()
+                    || attribute.getPersistentAttributeType() == PersistentAttributeType.EMBEDDED) {
+                throw new IllegalArgumentException(propertyIds[i] + " is not a value property");
+            }
+            columns[i] = source.get(names[names.length - 1]);
+        }
+    }
+
+    /**
+     * Add the joins of this projection to the given query
+     *
+     * @param query
+     * @return
+     */
+    JPAQuery join(JPAQuery query) {
+        for (int i = 0; i < joinTargets.size(); i++) {
+            query.leftJoin(joinTargets.get(i), joinAliases.get(i));
+        }
+        return query;
+    }
+
+    Expression<?>[] getColumns() {
+        return columns;
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.mysema.query.types.Predicate;
+
+/**
+ * CountCache caches row counts keyed by the set of predicates they were computed for.
+ *
+ * <p>Counts stored for an older generation are ignored, which makes it safe to store the results
+ * of counts which were started before the cache was cleared. Cleared and expired counts are kept
+ * as estimates for the same predicates.</p>
+ *
+ * @author tiwe
+ *
+ */
+final class CountCache implements Serializable {
+
+    private static final long serialVersionUID = 6093417586126478152L;
+
+    private static final int MAX_SIZE = 64;
+
+    private static final class Entry implements Serializable {
+
+        private static final long serialVersionUID = -3470138412085237853L;
+
+        private final int count;
+
+        private final int generation;
+
+        private final long created = System.currentTimeMillis();
+
+        Entry(int count, int generation) {
+            this.count = count;
+            this.generation = generation;
+        }
+
+    }
+
+    private final Map<Set<Predicate>, Entry> counts = new LinkedHashMap<Set<Predicate>, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Set<Predicate>, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private final Set<Set<Predicate>> pending = Sets.newHashSet();
+
+    private int generation;
+
+    static Set<Predicate> key(Predicate[] where) {
+        return ImmutableSet.copyOf(where);
+    }
+
+    /**
+     * Get the count for the given key, if it is younger than the given timeout in milliseconds
+     * and hasn't been cleared
+     *
+     * @param key
+     * @param timeout
+     * @return
+     */
+    @Nullable
+    synchronized Integer get(Set<Predicate> key, long timeout) {
+        Entry entry = counts.get(key);
+        if (entry != null && entry.generation == generation
+                && System.currentTimeMillis() - entry.created < timeout) {
+            return entry.count;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Get an estimate for the count of the given key, which is the last count of the key
+     *
+     * @param key
+     * @return the estimate or null, if the key hasn't been counted
+     */
+    @Nullable
+    synchronized Integer estimate(Set<Predicate> key) {
+        Entry entry = counts.get(key);
+        return entry != null ? entry.count : null;
+    }
+
+    synchronized boolean put(Set<Predicate> key, int count, int generation) {
+        if (this.generation == generation) {
+            counts.put(key, new Entry(count, generation));
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    synchronized int getGeneration() {
+        return generation;
+    }
+
+    synchronized boolean addPending(Set<Predicate> key) {
+        return pending.add(key);
+    }
+
+    synchronized void removePending(Set<Predicate> key) {
+        pending.remove(key);
+    }
+
+    /**
+     * Clear the cached counts, the counts are kept as estimates
+     */
+    synchronized void clear() {
+        generation++;
+    }
+
+}
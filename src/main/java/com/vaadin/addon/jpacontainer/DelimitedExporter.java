@@ -0,0 +1,173 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import com.mysema.commons.lang.CloseableIterator;
+import com.mysema.query.Tuple;
+import com.mysema.query.types.Path;
+
+/**
+ * DelimitedExporter writes the given properties of the entities of a {@link QuerydslJPAContainer}
+ * as UTF-8 encoded CSV or TSV to an output stream. The rows are streamed from a projection query
+ * with the applied filters and the current order of the container, so no entities are loaded and
+ * the memory use doesn't depend on the amount of rows.
+ *
+ * <p>The first row contains the property ids. CSV values are quoted as defined in RFC 4180, TSV
+ * values escape backslashes, tabs and line breaks as {@code \\}, {@code \t}, {@code \n} and
+ * {@code \r}. Null values are written as empty values and dates in ISO 8601 format.</p>
+ *
+ * XXX Prototype of Vaadin/Querydsl integration, don't use in production code
+ *
+ * @author tiwe
+ *
+ */
+public final class DelimitedExporter {
+
+    public static final DelimitedExporter CSV = new DelimitedExporter(',', "\r\n", true);
+
+    public static final DelimitedExporter TSV = new DelimitedExporter('\t', "\n", false);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final char delimiter;
+
+    private final String lineSeparator;
+
+    private final boolean quoting;
+
+    private DelimitedExporter(char delimiter, String lineSeparator, boolean quoting) {
+        this.delimiter = delimiter;
+        this.lineSeparator = lineSeparator;
+        this.quoting = quoting;
+    }
+
+    /**
+     * Export the given properties of the entities of the given container
+     *
+     * @param container
+     * @param out output stream, which is flushed but not closed
+     * @param paths
+     * @return the amount of exported rows
+     * @throws IOException
+     */
+    public long export(QuerydslJPAContainer<?> container, OutputStream out, Path<?>... paths)
+            throws IOException {
+        return export(container, out, PathResolver.getPropertyIds(paths));
+    }
+
+    /**
+     * Export the given properties of the entities of the given container, e.g. the visible
+     * columns of a table
+     *
+     * @param container
+     * @param out output stream, which is flushed but not closed
+     * @param propertyIds
+     * @return the amount of exported rows
+     * @throws IOException
+     */
+    public long export(QuerydslJPAContainer<?> container, OutputStream out, String... propertyIds)
+            throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF8), BUFFER_SIZE);
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+        for (int i = 0; i < propertyIds.length; i++) {
+            if (i > 0) {
+                writer.write(delimiter);
+            }
+            writeValue(writer, propertyIds[i]);
+        }
+        writer.write(lineSeparator);
+        long count = 0;
+        CloseableIterator<Tuple> rows = container.streamColumns(propertyIds);
+        try {
+            while (rows.hasNext()) {
+                Tuple row = rows.next();
+                for (int i = 0; i < propertyIds.length; i++) {
+                    if (i > 0) {
+                        writer.write(delimiter);
+                    }
+                    Object value = row.get(i, Object.class);
+                    if (value instanceof Date) {
+                        writer.write(dateFormat.format((Date) value));
+                    } else if (value instanceof Enum) {
+                        writeValue(writer, ((Enum<?>) value).name());
+                    } else if (value != null) {
+                        writeValue(writer, value.toString());
+                    }
+                }
+                writer.write(lineSeparator);
+                count++;
+            }
+        } finally {
+            rows.close();
+        }
+        writer.flush();
+        return count;
+    }
+
+    private void writeValue(Writer writer, String value) throws IOException {
+        int length = value.length();
+        int special = 0;
+        while (special < length && !isSpecial(value.charAt(special))) {
+            special++;
+        }
+        if (special == length) {
+            writer.write(value);
+        } else if (quoting) {
+            writer.write('"');
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    writer.write('"');
+                }
+                writer.write(c);
+            }
+            writer.write('"');
+        } else {
+            writer.write(value, 0, special);
+            for (int i = special; i < length; i++) {
+                char c = value.charAt(i);
+                if (c == '\\') {
+                    writer.write("\\\\");
+                } else if (c == '\t') {
+                    writer.write("\\t");
+                } else if (c == '\n') {
+                    writer.write("\\n");
+                } else if (c == '\r') {
+                    writer.write("\\r");
+                } else {
+                    writer.write(c);
+                }
+            }
+        }
+    }
+
+    private boolean isSpecial(char c) {
+        return c == delimiter || c == '\n' || c == '\r' || (quoting ? c == '"' : c == '\\');
+    }
+
+}
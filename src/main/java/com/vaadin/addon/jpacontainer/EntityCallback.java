@@ -0,0 +1,35 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+/**
+ * EntityCallback handles the entities streamed via {@link QuerydslJPAContainer#forEach(EntityCallback)}
+ *
+ * @author tiwe
+ *
+ * @param <T>
+ */
+public interface EntityCallback<T> {
+
+    /**
+     * Handle the given entity. The entity is detached from the persistence context after the
+     * following entities have been handled.
+     *
+     * @param entity
+     */
+    void handle(T entity);
+
+}
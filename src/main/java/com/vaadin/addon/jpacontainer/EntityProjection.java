@@ -0,0 +1,204 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.mysema.query.jpa.impl.JPAQuery;
+import com.mysema.query.types.Expression;
+import com.mysema.query.types.QBean;
+import com.mysema.query.types.path.PathBuilder;
+
+/**
+ * EntityProjection projects the given properties of an entity into transient instances of the
+ * entity class. Embedded properties are projected into transient embeddable instances and
+ * to-one associations are left joined and projected into transient instances of the associated
+ * entity, which are null, if the association is null. Collection valued properties are not
+ * projected.
+ *
+ * @author tiwe
+ *
+ * @param <T>
+ */
+final class EntityProjection<T> {
+
+    private static final class Node {
+
+        private final Class<?> type;
+
+        private final PathBuilder<?> source;
+
+        // Expression or Node
+        private final Map<String, Object> children = Maps.newLinkedHashMap();
+
+        Node(Class<?> type, PathBuilder<?> source) {
+            this.type = type;
+            this.source = source;
+        }
+
+    }
+
+    /**
+     * QBean which creates no instance, if all values are null, e.g. for an association without a
+     * joined row
+     */
+    private static final class OptionalBean<T> extends QBean<T> {
+
+        private static final long serialVersionUID = 1L;
+
+        OptionalBean(Class<T> type, Map<String, Expression<?>> bindings) {
+            super(type, true, bindings);
+        }
+
+        @Nullable
+        public T newInstance(Object... args) {
+            for (Object arg : args) {
+                if (arg != null) {
+                    return super.newInstance(args);
+                }
+            }
+            return null;
+        }
+
+    }
+
+    private final QBean<T> bean;
+
+    private final List<PathBuilder<Object>> joinTargets = Lists.newArrayList();
+
+    private final List<PathBuilder<Object>> joinAliases = Lists.newArrayList();
+
+    private final Map<String, PathBuilder<Object>> aliases = Maps.newHashMap();
+
+    private final Metamodel metamodel;
+
+    @SuppressWarnings("unchecked")
+    EntityProjection(PathBuilder<T> entity, Metamodel metamodel, String idProperty, String... propertyIds) {
+        this.metamodel = metamodel;
+        Node root = new Node(entity.getType(), entity);
+        add(root, idProperty);
+        for (String propertyId : propertyIds) {
+            add(root, propertyId);
+        }
+        this.bean = createBean(root, false);
+    }
+
+    private void add(Node root, String propertyId) {
+        Node node = root;
+        ManagedType<?> type = metamodel.managedType(root.type);
+        String[] names = propertyId.split("\\.");
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            Attribute<?, ?> attribute = type.getAttribute(name);
+            boolean last = i == names.length - 1;
+            Object current = node.children.get(name);
+            if (attribute.isCollection() || current instanceof Expression) {
+                // collections are not projected and whole values cover their properties
+                return;
+            } else if (attribute.isAssociation()) {
+                String path = join(names, i);
+                PathBuilder<Object> alias = aliases.get(path);
+                if (alias == null) {
+                    alias = new PathBuilder<Object>(attribute.getJavaType(), path.replace('.', '_') + "_");
+                    aliases.put(path, alias);
+                    joinTargets.add(node.source.get(name));
+                    joinAliases.add(alias);
+                }
+                if (last) {
+                    node.children.put(name, alias);
+                } else {
+                    node = child(node, name, attribute.getJavaType(), alias);
+                    // the identifier tells apart a null association from null values
+                    String idProperty = getIdProperty(metamodel.managedType(node.type));
+                    if (idProperty != null && !node.children.containsKey(idProperty)) {
+                        node.children.put(idProperty, alias.get(idProperty));
+                    }
+                }
+            } else if (attribute.getPersistentAttributeType() == PersistentAttributeType.EMBEDDED && !last) {
+                node = child(node, name, attribute.getJavaType(), node.source.get(name));
+            } else {
+                node.children.put(name, node.source.get(name));
+                return;
+            }
+            type = metamodel.managedType(node.type);
+        }
+    }
+
+    private static Node child(Node node, String name, Class<?> type, PathBuilder<?> source) {
+        Node child = (Node) node.children.get(name);
+        if (child == null) {
+            child = new Node(type, source);
+            node.children.put(name, child);
+        }
+        return child;
+    }
+
+    @Nullable
+    private static String getIdProperty(ManagedType<?> type) {
+        for (Attribute<?, ?> attribute : type.getAttributes()) {
+            if (attribute instanceof SingularAttribute && ((SingularAttribute<?, ?>) attribute).isId()) {
+                return attribute.getName();
+            }
+        }
+        return null;
+    }
+
+    private static String join(String[] names, int last) {
+        StringBuilder builder = new StringBuilder(names[0]);
+        for (int i = 1; i <= last; i++) {
+            builder.append('.').append(names[i]);
+        }
+        return builder.toString();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static QBean createBean(Node node, boolean nested) {
+        Map<String, Expression<?>> bindings = Maps.newLinkedHashMap();
+        for (Map.Entry<String, Object> entry : node.children.entrySet()) {
+            Object child = entry.getValue();
+            bindings.put(entry.getKey(), child instanceof Node ? createBean((Node) child, true) : (Expression<?>) child);
+        }
+        return nested ? new OptionalBean(node.type, bindings) : new QBean(node.type, true, bindings);
+    }
+
+    /**
+     * Add the joins of this projection to the given query
+     *
+     * @param query
+     * @return
+     */
+    JPAQuery join(JPAQuery query) {
+        for (int i = 0; i < joinTargets.size(); i++) {
+            query.leftJoin(joinTargets.get(i), joinAliases.get(i));
+        }
+        return query;
+    }
+
+    QBean<T> getBean() {
+        return bean;
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.mysema.query.jpa.impl.JPAQuery;
+import com.mysema.query.types.path.PathBuilder;
+
+/**
+ * FetchPlan contains the to-one associations on the paths of nested property ids, e.g.
+ * {@code manager} for {@code manager.address.street}, which are fetch joined when the entities
+ * of a page are loaded. Collection valued associations, e.g. {@code skills}, are fetch joined
+ * only if collections are enabled, since they multiply the rows of the query, and the paths are
+ * not followed past them.
+ *
+ * @author tiwe
+ *
+ * @param <T>
+ */
+final class FetchPlan<T> {
+
+    private final List<PathBuilder<Object>> joinTargets = Lists.newArrayList();
+
+    private final List<PathBuilder<Object>> joinAliases = Lists.newArrayList();
+
+    private boolean fetchesCollections;
+
+    FetchPlan(PathBuilder<T> entity, Metamodel metamodel, Collection<?> propertyIds, boolean collections) {
+        Map<String, PathBuilder<Object>> aliases = Maps.newHashMap();
+        for (Object propertyId : propertyIds) {
+            String[] names = propertyId.toString().split("\\.");
+            ManagedType<?> type = metamodel.managedType(entity.getType());
+            PathBuilder<?> source = entity;
+            StringBuilder path = new StringBuilder();
+            for (int i = 0; i < names.length; i++) {
+                Attribute<?, ?> attribute = type.getAttribute(names[i]);
+                boolean last = i == names.length - 1;
+                path.append(names[i]).append('_');
+                if (attribute.isCollection()) {
+                    if (collections) {
+                        join(aliases, source, names[i], path.toString(),
+                                ((PluralAttribute<?, ?, ?>) attribute).getElementType().getJavaType());
+                        fetchesCollections = true;
+                    }
+                    break;
+                } else if (last) {
+                    // only the to-one associations leading to the property are fetched
+                    break;
+                } else if (attribute.isAssociation()) {
+                    source = join(aliases, source, names[i], path.toString(), attribute.getJavaType());
+                } else if (attribute.getPersistentAttributeType() == PersistentAttributeType.EMBEDDED) {
+                    source = source.get(names[i]);
+                } else {
+                    break;
+                }
+                type = metamodel.managedType(attribute.getJavaType());
+            }
+        }
+    }
+
+    private PathBuilder<Object> join(Map<String, PathBuilder<Object>> aliases, PathBuilder<?> source,
+            String name, String path, Class<?> type) {
+        PathBuilder<Object> alias = aliases.get(path);
+        if (alias == null) {
+            alias = new PathBuilder<Object>(type, path);
+            aliases.put(path, alias);
+            joinTargets.add(source.get(name));
+            joinAliases.add(alias);
+        }
+        return alias;
+    }
+
+    boolean isEmpty() {
+        return joinTargets.isEmpty();
+    }
+
+    /**
+     * Add the fetch joins of this plan to the given query
+     *
+     * @param query
+     * @return
+     */
+    JPAQuery fetch(JPAQuery query) {
+        for (int i = 0; i < joinTargets.size(); i++) {
+            query.leftJoin(joinTargets.get(i), joinAliases.get(i)).fetch();
+        }
+        if (fetchesCollections) {
+            query.distinct();
+        }
+        return query;
+    }
+
+}
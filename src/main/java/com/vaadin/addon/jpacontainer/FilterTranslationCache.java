@@ -0,0 +1,111 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mysema.query.types.Predicate;
+import com.vaadin.data.Container.Filter;
+
+/**
+ * FilterTranslationCache is a bounded and thread-safe cache for the translation of Querydsl
+ * predicates into Vaadin filters. The least recently used translations are evicted first.
+ *
+ * <p>The translations are keyed by the predicate and the identity of the visitor, so one cache
+ * can be shared by all containers.</p>
+ *
+ * XXX Prototype of Vaadin/Querydsl integration, don't use in production code
+ *
+ * @author tiwe
+ *
+ */
+public final class FilterTranslationCache {
+
+    public static final FilterTranslationCache DEFAULT = new FilterTranslationCache(1000);
+
+    private static final class Key {
+
+        private final VaadinExpressionVisitor visitor;
+
+        private final Predicate predicate;
+
+        private final int hashCode;
+
+        Key(VaadinExpressionVisitor visitor, Predicate predicate) {
+            this.visitor = visitor;
+            this.predicate = predicate;
+            this.hashCode = 31 * System.identityHashCode(visitor) + predicate.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            } else if (o instanceof Key) {
+                Key other = (Key) o;
+                return visitor == other.visitor && predicate.equals(other.predicate);
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+    }
+
+    private final Cache<Key, Filter> cache;
+
+    public FilterTranslationCache(long maximumSize) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    /**
+     * Get the cached translation of the given predicate or translate it via the given visitor
+     *
+     * @param predicate
+     * @param visitor
+     * @return
+     */
+    public Filter translate(Predicate predicate, VaadinExpressionVisitor visitor) {
+        Key key = new Key(visitor, predicate);
+        Filter filter = cache.getIfPresent(key);
+        if (filter == null) {
+            filter = (Filter) predicate.accept(visitor, null);
+            cache.put(key, filter);
+        }
+        return filter;
+    }
+
+    public long hitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long missCount() {
+        return cache.stats().missCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+}
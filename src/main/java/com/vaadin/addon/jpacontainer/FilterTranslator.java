@@ -0,0 +1,168 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.util.Collection;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.mysema.query.types.ConstantImpl;
+import com.mysema.query.types.Expression;
+import com.mysema.query.types.ExpressionUtils;
+import com.mysema.query.types.Operator;
+import com.mysema.query.types.Ops;
+import com.mysema.query.types.Predicate;
+import com.mysema.query.types.PredicateOperation;
+import com.mysema.query.types.expr.StringOperation;
+import com.mysema.query.types.path.PathBuilder;
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.util.filter.AbstractJunctionFilter;
+import com.vaadin.data.util.filter.And;
+import com.vaadin.data.util.filter.Between;
+import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.IsNull;
+import com.vaadin.data.util.filter.Like;
+import com.vaadin.data.util.filter.Not;
+import com.vaadin.data.util.filter.Or;
+import com.vaadin.data.util.filter.SimpleStringFilter;
+
+/**
+ * FilterTranslator translates Vaadin filters into Querydsl predicates, which is the reverse
+ * direction of {@link VaadinExpressionVisitor}. {@link PredicateFilter}s are unwrapped, so
+ * Vaadin filters and predicates can be combined in junctions.
+ *
+ * XXX Prototype of Vaadin/Querydsl integration, don't use in production code
+ *
+ * @author tiwe
+ *
+ */
+final class FilterTranslator {
+
+    /**
+     * Translate the given filter into a predicate on properties of the given root
+     *
+     * @param root
+     * @param filter
+     * @return the predicate or null, if the filter or one of its parts is not supported
+     */
+    @Nullable
+    static Predicate translate(PathBuilder<?> root, Filter filter) {
+        if (filter instanceof PredicateFilter) {
+            return ((PredicateFilter) filter).getPredicate();
+        } else if (filter instanceof And || filter instanceof Or) {
+            Collection<Filter> filters = ((AbstractJunctionFilter) filter).getFilters();
+            Predicate[] predicates = new Predicate[filters.size()];
+            int i = 0;
+            for (Filter f : filters) {
+                predicates[i] = translate(root, f);
+                if (predicates[i++] == null) {
+                    return null;
+                }
+            }
+            return filter instanceof And ? ExpressionUtils.allOf(predicates) : ExpressionUtils.anyOf(predicates);
+        } else if (filter instanceof Not) {
+            Predicate predicate = translate(root, ((Not) filter).getFilter());
+            return predicate != null ? predicate.not() : null;
+        } else if (filter instanceof Compare) {
+            return translate(root, (Compare) filter);
+        } else if (filter instanceof IsNull) {
+            return ExpressionUtils.isNull(getPath(root, ((IsNull) filter).getPropertyId()));
+        } else if (filter instanceof Between) {
+            Between between = (Between) filter;
+            return new PredicateOperation(Ops.BETWEEN, ImmutableList.<Expression<?>>of(
+                    getPath(root, between.getPropertyId()),
+                    ConstantImpl.create(between.getStartValue()), ConstantImpl.create(between.getEndValue())));
+        } else if (filter instanceof Like) {
+            Like like = (Like) filter;
+            Expression<?> path = getPath(root, like.getPropertyId());
+            if (like.isCaseSensitive()) {
+                return PredicateOperation.create(Ops.LIKE, path, ConstantImpl.create(like.getValue()));
+            } else {
+                return PredicateOperation.create(Ops.LIKE, StringOperation.create(Ops.LOWER, path),
+                        ConstantImpl.create(like.getValue().toLowerCase()));
+            }
+        } else if (filter instanceof SimpleStringFilter) {
+            SimpleStringFilter stringFilter = (SimpleStringFilter) filter;
+            Operator<Boolean> operator;
+            if (stringFilter.isOnlyMatchPrefix()) {
+                operator = stringFilter.isIgnoreCase() ? Ops.STARTS_WITH_IC : Ops.STARTS_WITH;
+            } else {
+                operator = stringFilter.isIgnoreCase() ? Ops.STRING_CONTAINS_IC : Ops.STRING_CONTAINS;
+            }
+            return PredicateOperation.create(operator, getPath(root, stringFilter.getPropertyId()),
+                    ConstantImpl.create(stringFilter.getFilterString()));
+        } else {
+            return null;
+        }
+    }
+
+    private static Predicate translate(PathBuilder<?> root, Compare compare) {
+        Expression<?> path = getPath(root, compare.getPropertyId());
+        Object value = compare.getValue();
+        switch (compare.getOperation()) {
+        case EQUAL:
+            if (value == null) {
+                return ExpressionUtils.isNull(path);
+            }
+            return PredicateOperation.create(Ops.EQ, path, ConstantImpl.create(value));
+        case GREATER:
+            return PredicateOperation.create(Ops.GT, path, ConstantImpl.create(value));
+        case GREATER_OR_EQUAL:
+            return PredicateOperation.create(Ops.GOE, path, ConstantImpl.create(value));
+        case LESS:
+            return PredicateOperation.create(Ops.LT, path, ConstantImpl.create(value));
+        case LESS_OR_EQUAL:
+            return PredicateOperation.create(Ops.LOE, path, ConstantImpl.create(value));
+        default:
+            throw new IllegalArgumentException("Unsupported operation " + compare.getOperation());
+        }
+    }
+
+    private static PathBuilder<?> getPath(PathBuilder<?> root, Object propertyId) {
+        PathBuilder<?> path = root;
+        for (String name : propertyId.toString().split("\\.")) {
+            path = path.get(name);
+        }
+        return path;
+    }
+
+    /**
+     * Get whether the given filter contains {@link PredicateFilter}s
+     *
+     * @param filter
+     * @return
+     */
+    static boolean containsPredicates(Filter filter) {
+        if (filter instanceof PredicateFilter) {
+            return true;
+        } else if (filter instanceof AbstractJunctionFilter) {
+            for (Filter f : ((AbstractJunctionFilter) filter).getFilters()) {
+                if (containsPredicates(f)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (filter instanceof Not) {
+            return containsPredicates(((Not) filter).getFilter());
+        } else {
+            return false;
+        }
+    }
+
+    private FilterTranslator() {}
+
+}
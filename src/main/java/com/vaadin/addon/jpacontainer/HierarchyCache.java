@@ -0,0 +1,100 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableSet;
+import com.mysema.query.types.OrderSpecifier;
+import com.mysema.query.types.Predicate;
+
+/**
+ * HierarchyCache keeps the ordered child identifiers and the child counts of the parents of a
+ * hierarchical container for one combination of predicates and order specifiers. The root
+ * identifiers are stored as the children of the null parent.
+ *
+ * @author tiwe
+ *
+ */
+final class HierarchyCache implements Serializable {
+
+    private static final long serialVersionUID = 4675040187359722147L;
+
+    private final Set<Predicate> where;
+
+    private final List<OrderSpecifier<?>> order;
+
+    @Nullable
+    private List<Object> roots;
+
+    // parent -> child identifiers
+    private final Map<Object, List<Object>> children = new HashMap<Object, List<Object>>();
+
+    // parent -> child count, for parents whose children are not loaded
+    private final Map<Object, Integer> childCounts = new HashMap<Object, Integer>();
+
+    HierarchyCache(Predicate[] where, OrderSpecifier<?>[] order) {
+        this.where = ImmutableSet.copyOf(where);
+        this.order = Arrays.<OrderSpecifier<?>>asList(order);
+    }
+
+    boolean matches(Predicate[] where, OrderSpecifier<?>[] order) {
+        return this.where.equals(ImmutableSet.copyOf(where)) && this.order.equals(Arrays.asList(order));
+    }
+
+    /**
+     * Get the child identifiers of the given parent
+     *
+     * @param parentId parent identifier or null for the roots
+     * @return the identifiers or null, if they are not loaded
+     */
+    @Nullable
+    List<Object> getChildren(@Nullable Object parentId) {
+        return parentId != null ? children.get(parentId) : roots;
+    }
+
+    void putChildren(@Nullable Object parentId, List<Object> ids) {
+        if (parentId != null) {
+            children.put(parentId, ids);
+        } else {
+            roots = ids;
+        }
+    }
+
+    /**
+     * Get the child count of the given parent
+     *
+     * @param parentId
+     * @return the count or null, if it is not known
+     */
+    @Nullable
+    Integer getChildCount(Object parentId) {
+        List<Object> ids = children.get(parentId);
+        return ids != null ? Integer.valueOf(ids.size()) : childCounts.get(parentId);
+    }
+
+    void putChildCounts(Map<Object, Integer> counts) {
+        childCounts.putAll(counts);
+    }
+
+}
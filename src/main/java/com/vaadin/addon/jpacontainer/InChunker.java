@@ -0,0 +1,92 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.mysema.query.types.Constant;
+import com.mysema.query.types.ConstantImpl;
+import com.mysema.query.types.Expression;
+import com.mysema.query.types.ExpressionUtils;
+import com.mysema.query.types.Operation;
+import com.mysema.query.types.Operator;
+import com.mysema.query.types.Ops;
+import com.mysema.query.types.Predicate;
+import com.mysema.query.types.PredicateOperation;
+
+/**
+ * InChunker splits IN and NOT IN operations with large collections into disjunctions and
+ * conjunctions of smaller IN and NOT IN operations, so that the size of each IN list stays
+ * within the limits of the database and its index usage.
+ *
+ * XXX Prototype of Vaadin/Querydsl integration, don't use in production code
+ *
+ * @author tiwe
+ *
+ */
+public final class InChunker {
+
+    /**
+     * Split the IN and NOT IN operations of the given predicate into chunks of the given size
+     *
+     * @param predicate
+     * @param chunkSize
+     * @return the original predicate, if no operations were split
+     */
+    public static Predicate chunk(Predicate predicate, int chunkSize) {
+        return (Predicate) transform(predicate, chunkSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Expression<?> transform(Expression<?> expr, int chunkSize) {
+        if (!(expr instanceof Operation)) {
+            return expr;
+        }
+        Operation<?> operation = (Operation<?>) expr;
+        Operator<?> operator = operation.getOperator();
+        if ((operator == Ops.IN || operator == Ops.NOT_IN) && operation.getArg(1) instanceof Constant) {
+            Object constant = ((Constant<?>) operation.getArg(1)).getConstant();
+            if (constant instanceof Collection && ((Collection<?>) constant).size() > chunkSize) {
+                List<? extends List<?>> chunks = Lists.partition(
+                        Lists.newArrayList((Collection<?>) constant), chunkSize);
+                Predicate[] predicates = new Predicate[chunks.size()];
+                for (int i = 0; i < predicates.length; i++) {
+                    predicates[i] = PredicateOperation.create((Operator<Boolean>) operator,
+                            operation.getArg(0), ConstantImpl.create(Lists.newArrayList(chunks.get(i))));
+                }
+                return operator == Ops.IN ? ExpressionUtils.anyOf(predicates) : ExpressionUtils.allOf(predicates);
+            }
+        } else if (operator == Ops.AND || operator == Ops.OR || operator == Ops.NOT) {
+            List<Expression<?>> args = operation.getArgs();
+            Expression<?>[] transformed = new Expression<?>[args.size()];
+            boolean changed = false;
+            for (int i = 0; i < transformed.length; i++) {
+                transformed[i] = transform(args.get(i), chunkSize);
+                changed |= transformed[i] != args.get(i);
+            }
+            if (changed) {
+                return new PredicateOperation((Operator<Boolean>) operator, ImmutableList.copyOf(transformed));
+            }
+        }
+        return expr;
+    }
+
+    private InChunker() {}
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+import com.mysema.query.types.OrderSpecifier;
+import com.mysema.query.types.Predicate;
+
+/**
+ * KeysetIndex keeps a sparse index of page boundary keys and the most recently loaded pages of
+ * identifiers and, in projection mode, projected rows for one combination of predicates and
+ * order specifiers.
+ *
+ * @author tiwe
+ *
+ */
+final class KeysetIndex implements Serializable {
+
+    private static final long serialVersionUID = -2409276135480359021L;
+
+    private final List<Predicate> where;
+
+    private final List<OrderSpecifier<?>> order;
+
+    // page -> sort key of the last row of the preceding page
+    private final TreeMap<Integer, Object[]> boundaries = new TreeMap<Integer, Object[]>();
+
+    private final Map<Integer, List<Object>> pages;
+
+    // page -> projected rows by identifier
+    private final Map<Integer, Map<Object, Object>> rows = new HashMap<Integer, Map<Object, Object>>();
+
+    KeysetIndex(Predicate[] where, OrderSpecifier<?>[] order, final int maxPages) {
+        this.where = Arrays.asList(where);
+        this.order = Arrays.<OrderSpecifier<?>>asList(order);
+        this.pages = new LinkedHashMap<Integer, List<Object>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<Object>> eldest) {
+                if (size() > maxPages) {
+                    rows.remove(eldest.getKey());
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+        };
+    }
+
+    boolean matches(Predicate[] where, OrderSpecifier<?>[] order) {
+        return this.where.equals(Arrays.asList(where)) && this.order.equals(Arrays.asList(order));
+    }
+
+    @Nullable
+    List<Object> getPage(int page) {
+        return pages.get(page);
+    }
+
+    void putPage(int page, List<Object> ids) {
+        pages.put(page, ids);
+    }
+
+    void putPage(int page, List<Object> ids, Map<Object, Object> projectedRows) {
+        rows.put(page, projectedRows);
+        pages.put(page, ids);
+    }
+
+    /**
+     * Get the cached page which contains the given identifier
+     *
+     * @param id
+     * @return the page or -1, if the identifier is not in the cached pages
+     */
+    int getPageOf(Object id) {
+        for (Map.Entry<Integer, List<Object>> page : pages.entrySet()) {
+            if (page.getValue().contains(id)) {
+                return page.getKey();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the projected row of the given entity from the cached pages
+     *
+     * @param id
+     * @return
+     */
+    @Nullable
+    Object getRow(Object id) {
+        for (Map<Object, Object> page : rows.values()) {
+            Object row = page.get(id);
+            if (row != null) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the closest known boundary at or before the given page
+     *
+     * @param page
+     * @return
+     */
+    @Nullable
+    Map.Entry<Integer, Object[]> getBoundary(int page) {
+        return boundaries.floorEntry(page);
+    }
+
+    void putBoundary(int page, Object[] key) {
+        boundaries.put(page, key);
+    }
+
+}
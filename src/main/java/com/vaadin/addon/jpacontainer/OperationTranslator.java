@@ -0,0 +1,40 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.io.Serializable;
+
+import com.mysema.query.types.Operation;
+
+/**
+ * OperationTranslator translates Querydsl operations of a single operator into Vaadin filters
+ * or filter arguments
+ *
+ * @author tiwe
+ *
+ */
+public interface OperationTranslator extends Serializable {
+
+    /**
+     * Translate the given operation
+     *
+     * @param expr operation to translate
+     * @param visitor visitor to be used for the translation of the arguments
+     * @return
+     */
+    Object translate(Operation<?> expr, VaadinExpressionVisitor visitor);
+
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Maps;
+
+/**
+ * PagePrefetcher loads the pages next to the accessed page in the background. The scroll
+ * direction is predicted from the order of the accessed pages, and the page in that direction is
+ * submitted before the page in the other direction.
+ *
+ * <p>Prefetches belong to one {@link KeysetIndex}, i.e. to one combination of predicates and order
+ * specifiers, and are cancelled when the pages of another index are accessed. At most the two
+ * pages next to the last accessed page are pending, since prefetches of other pages are cancelled
+ * when the accessed page changes.</p>
+ *
+ * <p>The loaded pages are handed over in the thread of the container via
+ * {@link #take(KeysetIndex, int)}, so the index itself is only accessed by that thread.</p>
+ *
+ * @author tiwe
+ *
+ * @param <P> page type
+ */
+final class PagePrefetcher<P> {
+
+    private final Map<Integer, FutureTask<P>> pending = Maps.newHashMap();
+
+    @Nullable
+    private KeysetIndex index;
+
+    private int lastPage = -1;
+
+    private int direction = 1;
+
+    /**
+     * Record an access to the given page and return the pages to prefetch, the page in the
+     * predicted direction first
+     *
+     * @param index
+     * @param page
+     * @return
+     */
+    synchronized int[] access(KeysetIndex index, int page) {
+        if (this.index != index) {
+            cancel();
+            this.index = index;
+        } else if (page == lastPage) {
+            return new int[0];
+        } else if (lastPage >= 0) {
+            direction = page > lastPage ? 1 : -1;
+        }
+        lastPage = page;
+        Iterator<Map.Entry<Integer, FutureTask<P>>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, FutureTask<P>> entry = iterator.next();
+            if (Math.abs(entry.getKey() - page) > 1) {
+                entry.getValue().cancel(false);
+                iterator.remove();
+            }
+        }
+        int ahead = page + direction, behind = page - direction;
+        if (behind < 0) {
+            return new int[]{ahead};
+        } else if (ahead < 0) {
+            return new int[]{behind};
+        } else {
+            return new int[]{ahead, behind};
+        }
+    }
+
+    /**
+     * Load the given page of the current index via the given loader in the given executor,
+     * unless it is already pending
+     *
+     * @param page
+     * @param loader
+     * @param executor
+     */
+    synchronized void submit(int page, Callable<P> loader, Executor executor) {
+        if (!pending.containsKey(page)) {
+            FutureTask<P> task = new FutureTask<P>(loader);
+            pending.put(page, task);
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Take the prefetched page of the given index. A pending page, which hasn't been started yet,
+     * is loaded in the calling thread, and a running one is waited for.
+     *
+     * @param index
+     * @param page
+     * @return the page or null, if the page is not pending or its loading failed
+     */
+    @Nullable
+    P take(KeysetIndex index, int page) {
+        FutureTask<P> task;
+        synchronized (this) {
+            if (this.index != index) {
+                return null;
+            }
+            task = pending.remove(page);
+        }
+        if (task == null || task.isCancelled()) {
+            return null;
+        }
+        // runs the loader only if it hasn't been started yet
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // the page is loaded again by the caller
+            return null;
+        }
+    }
+
+    /**
+     * Cancel the pending prefetches, e.g. after the predicates or order specifiers have changed
+     */
+    synchronized void cancel() {
+        for (FutureTask<P> task : pending.values()) {
+            task.cancel(false);
+        }
+        pending.clear();
+        index = null;
+        lastPage = -1;
+        direction = 1;
+    }
+
+}
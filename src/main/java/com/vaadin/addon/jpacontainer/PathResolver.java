@@ -0,0 +1,75 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import javax.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mysema.query.types.Path;
+import com.mysema.query.types.PathMetadata;
+import com.mysema.query.types.PathType;
+
+/**
+ * PathResolver resolves Querydsl paths into dotted Vaadin property ids, e.g. "address.street"
+ * for {@code QPerson.person.address.street}.
+ *
+ * <p>The property ids are computed once per path instance and interned. The cache holds the
+ * paths weakly, so it doesn't prevent dynamically created paths from being collected.</p>
+ *
+ * XXX Prototype of Vaadin/Querydsl integration, don't use in production code
+ *
+ * @author tiwe
+ *
+ */
+public final class PathResolver {
+
+    private static final Cache<Path<?>, String> PROPERTY_IDS = CacheBuilder.newBuilder()
+            .weakKeys().build();
+
+    /**
+     * Get the property id of the given path or null, if the path is not a property path
+     *
+     * @param path
+     * @return
+     */
+    @Nullable
+    public static String getPropertyId(Path<?> path) {
+        PathMetadata<?> metadata = path.getMetadata();
+        if (metadata.getPathType() != PathType.PROPERTY) {
+            return null;
+        }
+        String propertyId = PROPERTY_IDS.getIfPresent(path);
+        if (propertyId == null) {
+            String parent = getPropertyId(metadata.getParent());
+            String name = metadata.getName();
+            propertyId = (parent != null ? parent + "." + name : name).intern();
+            PROPERTY_IDS.put(path, propertyId);
+        }
+        return propertyId;
+    }
+
+    public static String[] getPropertyIds(Path<?>... paths) {
+        String[] propertyIds = new String[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            propertyIds[i] = getPropertyId(paths[i]);
+        }
+        return propertyIds;
+    }
+
+    private PathResolver() {}
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.collect.Lists;
+
+/**
+ * PersistenceContextWindow keeps track of the managed entities loaded for each page, so that the
+ * entities of the pages outside of the window around the current page can be evicted from the
+ * persistence context in batches.
+ *
+ * @author tiwe
+ *
+ */
+final class PersistenceContextWindow {
+
+    private final TreeMap<Integer, List<Object>> pages = new TreeMap<Integer, List<Object>>();
+
+    // entities of pages which were loaded for other predicates or order specifiers
+    private final List<Object> stale = Lists.newArrayList();
+
+    void add(int page, Collection<?> entities) {
+        List<Object> list = pages.get(page);
+        if (list == null) {
+            list = Lists.newArrayList();
+            pages.put(page, list);
+        }
+        list.addAll(entities);
+    }
+
+    /**
+     * Mark the tracked pages as stale, e.g. after the page numbers have changed their meaning
+     */
+    void invalidate() {
+        for (List<Object> entities : pages.values()) {
+            stale.addAll(entities);
+        }
+        pages.clear();
+    }
+
+    /**
+     * Remove and return the entities outside of the given window around the given page, if there
+     * are at least the given amount of them
+     *
+     * @param page
+     * @param window
+     * @param batch
+     * @return
+     */
+    List<Object> evict(int page, int window, int batch) {
+        int outside = stale.size();
+        for (Map.Entry<Integer, List<Object>> entry : pages.entrySet()) {
+            if (Math.abs(entry.getKey() - page) > window) {
+                outside += entry.getValue().size();
+            }
+        }
+        if (outside < batch || outside == 0) {
+            return Collections.emptyList();
+        }
+        List<Object> evicted = Lists.newArrayListWithCapacity(outside);
+        evicted.addAll(stale);
+        stale.clear();
+        Iterator<Map.Entry<Integer, List<Object>>> iterator = pages.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, List<Object>> entry = iterator.next();
+            if (Math.abs(entry.getKey() - page) > window) {
+                evicted.addAll(entry.getValue());
+                iterator.remove();
+            }
+        }
+        return evicted;
+    }
+
+}
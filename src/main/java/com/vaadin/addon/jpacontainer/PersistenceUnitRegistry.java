@@ -0,0 +1,215 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.EntityType;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.vaadin.addon.jpacontainer.metadata.MetadataFactory;
+
+/**
+ * PersistenceUnitRegistry bootstraps persistence units eagerly, e.g. in the background at
+ * application startup, so that the first container of a persistence unit doesn't pay for the
+ * bootstrap on a user request.
+ *
+ * <p>The bootstrap creates the entity manager factory via {@link JPAContainerFactory}, which
+ * caches it, so containers created via {@link JPAContainerFactory} and
+ * {@link QuerydslJPAContainerFactory} share the bootstrapped factory. It also deploys the
+ * metadata of the persistence unit and computes the JPAContainer metadata of all entity types.</p>
+ *
+ * <p>The registry is opt-in. The {@link QuerydslJPAContainerFactory} methods which take a
+ * persistence unit name use the default registry only for the persistence units whose bootstrap
+ * has been started there, and {@link JPAContainerFactory} otherwise.</p>
+ *
+ * <p>The entity manager factory cache of {@link JPAContainerFactory} is not thread-safe. While
+ * persistence units are warmed up in the background, entity managers and containers need to be
+ * created via the registry, e.g. via {@link #createEntityManager(String)} or the
+ * {@link QuerydslJPAContainerFactory} methods which take a persistence unit name, and not via
+ * {@link JPAContainerFactory} directly.</p>
+ *
+ * XXX Prototype of Vaadin/Querydsl integration, don't use in production code
+ *
+ * @author tiwe
+ *
+ */
+public final class PersistenceUnitRegistry {
+
+    public static final PersistenceUnitRegistry DEFAULT = new PersistenceUnitRegistry();
+
+    private static final Executor WARM_UP_EXECUTOR = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("persistence-unit-warm-up-%d").build());
+
+    private final ConcurrentMap<String, FutureTask<EntityManagerFactory>> units = Maps.newConcurrentMap();
+
+    /**
+     * Bootstrap the given persistence units in the background
+     *
+     * @param persistenceUnitNames
+     */
+    public void warmUp(String... persistenceUnitNames) {
+        warmUp(WARM_UP_EXECUTOR, persistenceUnitNames);
+    }
+
+    /**
+     * Bootstrap the given persistence units via the given executor
+     *
+     * @param executor
+     * @param persistenceUnitNames
+     */
+    public void warmUp(Executor executor, String... persistenceUnitNames) {
+        for (String persistenceUnitName : persistenceUnitNames) {
+            executor.execute(getTask(persistenceUnitName));
+        }
+    }
+
+    /**
+     * Get whether the bootstrap of the given persistence unit has been started via this registry
+     *
+     * @param persistenceUnitName
+     * @return
+     */
+    public boolean contains(String persistenceUnitName) {
+        return units.containsKey(persistenceUnitName);
+    }
+
+    /**
+     * Get whether the given persistence unit has been bootstrapped successfully
+     *
+     * @param persistenceUnitName
+     * @return
+     */
+    public boolean isReady(String persistenceUnitName) {
+        FutureTask<EntityManagerFactory> task = units.get(persistenceUnitName);
+        if (task == null || !task.isDone()) {
+            return false;
+        }
+        try {
+            task.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (CancellationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Wait for the bootstrap of the given persistence unit, which needs to be started via
+     * {@link #warmUp(String...)} or {@link #getEntityManagerFactory(String)}
+     *
+     * @param persistenceUnitName
+     * @param timeout
+     * @param unit
+     * @return true, if the persistence unit is ready, and false, if the timeout elapsed or the
+     *         bootstrap hasn't been started or was cancelled
+     * @throws InterruptedException
+     */
+    public boolean awaitReady(String persistenceUnitName, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        FutureTask<EntityManagerFactory> task = units.get(persistenceUnitName);
+        if (task == null) {
+            return false;
+        }
+        try {
+            task.get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (CancellationException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Bootstrap of " + persistenceUnitName + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Get the entity manager factory of the given persistence unit. The persistence unit is
+     * bootstrapped in the calling thread, unless its bootstrap has already been started.
+     *
+     * @param persistenceUnitName
+     * @return
+     */
+    public EntityManagerFactory getEntityManagerFactory(String persistenceUnitName) {
+        FutureTask<EntityManagerFactory> task = getTask(persistenceUnitName);
+        // runs the bootstrap only if it hasn't been started yet
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + persistenceUnitName, e);
+        } catch (ExecutionException e) {
+            // the next call retries the bootstrap
+            units.remove(persistenceUnitName, task);
+            throw new IllegalStateException("Bootstrap of " + persistenceUnitName + " failed", e.getCause());
+        }
+    }
+
+    public EntityManager createEntityManager(String persistenceUnitName) {
+        return getEntityManagerFactory(persistenceUnitName).createEntityManager();
+    }
+
+    private FutureTask<EntityManagerFactory> getTask(final String persistenceUnitName) {
+        FutureTask<EntityManagerFactory> task = units.get(persistenceUnitName);
+        if (task == null) {
+            task = new FutureTask<EntityManagerFactory>(new Callable<EntityManagerFactory>() {
+                public EntityManagerFactory call() {
+                    return bootstrap(persistenceUnitName);
+                }
+            });
+            FutureTask<EntityManagerFactory> existing = units.putIfAbsent(persistenceUnitName, task);
+            if (existing != null) {
+                task = existing;
+            }
+        }
+        return task;
+    }
+
+    private static EntityManagerFactory bootstrap(String persistenceUnitName) {
+        EntityManager entityManager;
+        // the entity manager factory cache of JPAContainerFactory is not thread-safe, this only
+        // serializes the bootstraps of registries, see the class documentation
+        synchronized (JPAContainerFactory.class) {
+            entityManager = JPAContainerFactory.createEntityManagerForPersistenceUnit(persistenceUnitName);
+        }
+        try {
+            // deploys the persistence unit
+            for (EntityType<?> type : entityManager.getMetamodel().getEntities()) {
+                MetadataFactory.getInstance().getEntityClassMetadata(type.getJavaType());
+            }
+            return entityManager.getEntityManagerFactory();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+}
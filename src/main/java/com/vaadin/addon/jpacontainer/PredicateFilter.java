@@ -0,0 +1,88 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import com.mysema.query.types.Expression;
+import com.mysema.query.types.Operation;
+import com.mysema.query.types.Path;
+import com.mysema.query.types.Predicate;
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.Item;
+
+/**
+ * PredicateFilter wraps a Querydsl {@link Predicate} into a Vaadin {@link Filter} without
+ * translating it. It can only be evaluated by a {@link QuerydslEntityProvider}.
+ *
+ * @author tiwe
+ *
+ */
+public final class PredicateFilter implements Filter {
+
+    private static final long serialVersionUID = 4376312370474512925L;
+
+    private final Predicate predicate;
+
+    public PredicateFilter(Predicate predicate) {
+        this.predicate = predicate;
+    }
+
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    public boolean passesFilter(Object itemId, Item item) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("In-memory filtering is not supported for " + predicate);
+    }
+
+    public boolean appliesToProperty(Object propertyId) {
+        return appliesToProperty(predicate, propertyId);
+    }
+
+    private static boolean appliesToProperty(Expression<?> expr, Object propertyId) {
+        if (expr instanceof Path) {
+            return propertyId.equals(PathResolver.getPropertyId((Path<?>) expr));
+        } else if (expr instanceof Operation) {
+            for (Expression<?> arg : ((Operation<?>) expr).getArgs()) {
+                if (appliesToProperty(arg, propertyId)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (o instanceof PredicateFilter) {
+            return predicate.equals(((PredicateFilter) o).predicate);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return predicate.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return predicate.toString();
+    }
+
+}
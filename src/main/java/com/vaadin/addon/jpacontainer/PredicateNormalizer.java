@@ -0,0 +1,221 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.mysema.query.types.Constant;
+import com.mysema.query.types.Expression;
+import com.mysema.query.types.ExpressionUtils;
+import com.mysema.query.types.Operation;
+import com.mysema.query.types.Operator;
+import com.mysema.query.types.Ops;
+import com.mysema.query.types.Path;
+import com.mysema.query.types.Predicate;
+import com.mysema.query.types.PredicateOperation;
+
+/**
+ * PredicateNormalizer brings predicates into a canonical form before they are translated or
+ * executed. It
+ *
+ * <ul>
+ * <li>flattens nested AND and OR operations and removes duplicate clauses,</li>
+ * <li>removes double negations,</li>
+ * <li>folds comparisons of constants and boolean constants in AND and OR operations,</li>
+ * <li>removes {@code isNotNull} clauses implied by comparisons with constants, e.g. in
+ * {@code x.isNotNull().and(x.eq(5))}, unless the conjunction is negated,</li>
+ * <li>and orders the clauses of AND and OR operations by their estimated selectivity.</li>
+ * </ul>
+ *
+ * <p>Equivalent predicates that differ only in nesting and clause order normalize to equal
+ * predicates, which improves the hit rates of the caches keyed on predicates.</p>
+ *
+ * XXX Prototype of Vaadin/Querydsl integration, don't use in production code
+ *
+ * @author tiwe
+ *
+ */
+public final class PredicateNormalizer {
+
+    private static final Map<Operator<?>, Integer> SELECTIVITY = new IdentityHashMap<Operator<?>, Integer>();
+
+    static {
+        rank(0, Ops.EQ, Ops.EQ_IGNORE_CASE, Ops.IS_NULL);
+        rank(1, Ops.IN);
+        rank(2, Ops.BETWEEN);
+        rank(3, Ops.LT, Ops.GT, Ops.LOE, Ops.GOE);
+        rank(4, Ops.STARTS_WITH, Ops.STARTS_WITH_IC);
+        rank(5, Ops.LIKE, Ops.STRING_CONTAINS, Ops.STRING_CONTAINS_IC, Ops.ENDS_WITH, Ops.ENDS_WITH_IC);
+        rank(6, Ops.NE, Ops.NOT_IN, Ops.NOT);
+        rank(7, Ops.IS_NOT_NULL);
+        rank(8, Ops.AND, Ops.OR);
+    }
+
+    private static final int UNKNOWN_SELECTIVITY = 9;
+
+    private static final Comparator<Predicate> BY_SELECTIVITY = new Comparator<Predicate>() {
+        public int compare(Predicate p1, Predicate p2) {
+            int result = getSelectivity(p1) - getSelectivity(p2);
+            return result != 0 ? result : p1.toString().compareTo(p2.toString());
+        }
+    };
+
+    private static void rank(int selectivity, Operator<?>... operators) {
+        for (Operator<?> operator : operators) {
+            SELECTIVITY.put(operator, selectivity);
+        }
+    }
+
+    private static int getSelectivity(Predicate predicate) {
+        if (predicate instanceof Operation) {
+            Integer selectivity = SELECTIVITY.get(((Operation<?>) predicate).getOperator());
+            if (selectivity != null) {
+                return selectivity;
+            }
+        }
+        return UNKNOWN_SELECTIVITY;
+    }
+
+    /**
+     * Normalize the given predicate
+     *
+     * @param predicate
+     * @return the normalized predicate or the original predicate, if it folds into a constant
+     */
+    public static Predicate normalize(Predicate predicate) {
+        Object normalized = transform(predicate, false);
+        return normalized instanceof Predicate ? (Predicate) normalized : predicate;
+    }
+
+    /**
+     * @param negated whether the predicate is in the scope of an odd number of negations
+     * @return the transformed predicate or a Boolean, if the predicate folds into a constant
+     */
+    private static Object transform(Predicate predicate, boolean negated) {
+        if (predicate instanceof Constant && ((Constant<?>) predicate).getConstant() instanceof Boolean) {
+            return ((Constant<?>) predicate).getConstant();
+        } else if (!(predicate instanceof Operation)) {
+            return predicate;
+        }
+        Operation<?> operation = (Operation<?>) predicate;
+        Operator<?> operator = operation.getOperator();
+        if (operator == Ops.AND || operator == Ops.OR) {
+            return transformJunction(operation, negated);
+        } else if (operator == Ops.NOT) {
+            Object arg = transform((Predicate) operation.getArg(0), !negated);
+            if (arg instanceof Boolean) {
+                return !((Boolean) arg);
+            } else if (arg instanceof Operation && ((Operation<?>) arg).getOperator() == Ops.NOT) {
+                return ((Operation<?>) arg).getArg(0);
+            } else {
+                return arg != operation.getArg(0) ? PredicateOperation.create(Ops.NOT, (Predicate) arg) : predicate;
+            }
+        } else if ((operator == Ops.EQ || operator == Ops.NE)
+                && operation.getArg(0) instanceof Constant && operation.getArg(1) instanceof Constant) {
+            boolean equal = Objects.equal(((Constant<?>) operation.getArg(0)).getConstant(),
+                    ((Constant<?>) operation.getArg(1)).getConstant());
+            return operator == Ops.EQ ? equal : !equal;
+        } else {
+            return predicate;
+        }
+    }
+
+    private static Object transformJunction(Operation<?> operation, boolean negated) {
+        Operator<?> operator = operation.getOperator();
+        // the constant which decides the whole junction, false for AND and true for OR
+        Boolean dominant = operator == Ops.OR;
+        Set<Predicate> clauses = Sets.newLinkedHashSet();
+        List<Predicate> args = Lists.newArrayList();
+        flatten(operation, operator, args);
+        for (Predicate arg : args) {
+            Object clause = transform(arg, negated);
+            if (clause instanceof Boolean) {
+                if (clause.equals(dominant)) {
+                    return dominant;
+                }
+            } else if (clause instanceof Operation && ((Operation<?>) clause).getOperator() == operator) {
+                // the transformed clause can be a junction of the same type after folding
+                List<Predicate> nested = Lists.newArrayList();
+                flatten((Operation<?>) clause, operator, nested);
+                clauses.addAll(nested);
+            } else {
+                clauses.add((Predicate) clause);
+            }
+        }
+        // NOT(x IS NOT NULL AND x = 5) is true for null values, but NOT(x = 5) is unknown
+        if (operator == Ops.AND && !negated) {
+            removeImpliedNotNulls(clauses);
+        }
+        if (clauses.isEmpty()) {
+            return !dominant;
+        }
+        List<Predicate> sorted = Lists.newArrayList(clauses);
+        Collections.sort(sorted, BY_SELECTIVITY);
+        return operator == Ops.AND ? ExpressionUtils.allOf(sorted) : ExpressionUtils.anyOf(sorted);
+    }
+
+    private static void flatten(Operation<?> operation, Operator<?> operator, List<Predicate> args) {
+        for (Expression<?> arg : operation.getArgs()) {
+            if (arg instanceof Operation && ((Operation<?>) arg).getOperator() == operator) {
+                flatten((Operation<?>) arg, operator, args);
+            } else {
+                args.add((Predicate) arg);
+            }
+        }
+    }
+
+    private static void removeImpliedNotNulls(Set<Predicate> clauses) {
+        Set<Path<?>> comparedPaths = Sets.newHashSet();
+        for (Predicate clause : clauses) {
+            if (clause instanceof Operation) {
+                Operation<?> operation = (Operation<?>) clause;
+                Operator<?> operator = operation.getOperator();
+                int selectivity = getSelectivity(clause);
+                // comparisons with non-null constants are never true for null values
+                if (selectivity <= 5 && operator != Ops.IS_NULL
+                        && operation.getArg(0) instanceof Path
+                        && operation.getArg(1) instanceof Constant
+                        && ((Constant<?>) operation.getArg(1)).getConstant() != null) {
+                    comparedPaths.add((Path<?>) operation.getArg(0));
+                }
+            }
+        }
+        if (comparedPaths.isEmpty()) {
+            return;
+        }
+        Iterator<Predicate> iterator = clauses.iterator();
+        while (iterator.hasNext()) {
+            Predicate clause = iterator.next();
+            if (clause instanceof Operation
+                    && ((Operation<?>) clause).getOperator() == Ops.IS_NOT_NULL
+                    && comparedPaths.contains(((Operation<?>) clause).getArg(0))) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private PredicateNormalizer() {}
+
+}
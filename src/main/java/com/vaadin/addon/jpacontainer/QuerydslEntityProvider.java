@@ -0,0 +1,1708 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.FlushModeType;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.SingularAttribute;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mysema.commons.lang.CloseableIterator;
+import com.mysema.query.Tuple;
+import com.mysema.query.jpa.impl.JPAQuery;
+import com.mysema.query.types.ConstantImpl;
+import com.mysema.query.types.EntityPath;
+import com.mysema.query.types.Expression;
+import com.mysema.query.types.ExpressionUtils;
+import com.mysema.query.types.Ops;
+import com.mysema.query.types.Order;
+import com.mysema.query.types.OrderSpecifier;
+import com.mysema.query.types.Path;
+import com.mysema.query.types.Predicate;
+import com.mysema.query.types.PredicateOperation;
+import com.mysema.query.types.path.PathBuilder;
+import com.vaadin.addon.jpacontainer.provider.MutableLocalEntityProvider;
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.util.filter.And;
+import com.vaadin.data.util.filter.Compare.Equal;
+import com.vaadin.data.util.filter.IsNull;
+
+/**
+ * QuerydslEntityProvider is an entity provider which executes the Querydsl predicates and order
+ * specifiers of a {@link QuerydslJPAContainer} directly via {@link JPAQuery} instead of going
+ * through the Vaadin filter and JPA Criteria translation.
+ *
+ * <p>Filters which are not backed by a Querydsl predicate are delegated to the default
+ * implementation of {@link MutableLocalEntityProvider}.</p>
+ *
+ * <p>The entity path used in the queries needs to match the root of the predicates. By default
+ * the variable of the default instance of the Querydsl query type is used, e.g. "person" for
+ * {@code QPerson.person}.</p>
+ *
+ * <p>Identifiers are loaded in pages of {@link #getPageSize()} rows. In keyset pagination mode
+ * the pages are located by seeking past the sort key of the last row of the preceding page
+ * instead of skipping rows via an offset. Random jumps seek from the closest known page boundary
+ * and skip the remaining rows via an offset. Orders over properties which can be null are paged
+ * via offsets only, since null values don't match the seek comparisons.</p>
+ *
+ * <p>The next and previous identifiers of rows in the loaded pages are taken from the pages.
+ * Other rows are located via a seek past their sort key, which matches null values according to
+ * the null ordering of the database.</p>
+ *
+ * <p>Row counts are cached per set of predicates for {@link #getCountCacheTimeout()}
+ * milliseconds. With count estimation enabled, the previous count of the same predicates is
+ * returned immediately when no valid cached count is available and the exact count is computed in
+ * the background. When it differs from the estimate, an item set change event is fired via the
+ * callback executor, if one is set. Predicates which haven't been counted before are counted
+ * synchronously.</p>
+ *
+ * <p>When the container has nested properties on to-one associations, e.g. {@code manager.firstName},
+ * the entities of each loaded page are fetched with one query which fetch joins these associations,
+ * so rendering the page doesn't load the associations row by row. With collection fetching
+ * enabled, collection valued container properties such as {@code skills} are fetch joined as well,
+ * which populates the collections of the whole page via one {@code id in (...)} query.</p>
+ *
+ * <p>In read-only mode the queries carry the read-only hints of EclipseLink and Hibernate, which
+ * skip the change tracking of the loaded entities, the queries don't flush the entity manager
+ * and the persistence context is cleared every {@link #getClearInterval()} loaded pages. Write
+ * operations are not supported in this mode.</p>
+ *
+ * <p>With an eviction window, the managed entities loaded for pages further than
+ * {@link #getEvictionWindow()} pages from the current page are detached from the persistence
+ * context in batches of {@link #getEvictionBatch()} entities, which bounds the size of the
+ * persistence context in long scroll sessions. The entities of items with uncommitted changes
+ * stay managed until the changes are committed or discarded.</p>
+ *
+ * <p>With prefetching enabled, the pages next to the accessed page are loaded in the background
+ * via the executor, the page in the predicted scroll direction first. The prefetches use their
+ * own entity manager, load only the identifiers and projected rows, and are cancelled when the
+ * predicates or order specifiers change. The default executor has a bounded queue and discards
+ * prefetches and count refinements which don't fit into it, see
+ * {@link #newExecutor(int, int)}.</p>
+ *
+ * <p>With hierarchy levels set and a parent property set in the container, the children of a
+ * parent are loaded together with the descendants of the next {@link #getHierarchyLevels()}
+ * levels via one {@code parent.id in (...)} query per level, and the child identifiers are cached
+ * per parent until the predicates, the order or the data change. The child counts of the deepest
+ * loaded level and of the entities of each loaded page are computed with one
+ * {@code group by parent.id} query, so that {@code hasChildren} checks of the displayed nodes
+ * don't query per node.</p>
+ *
+ * <p>{@link #iterate(EntityContainer, Collection, List)} streams all matching entities through a
+ * forward-only cursor of a separate entity manager, whose persistence context is cleared every
+ * {@link #getStreamClearInterval()} rows, so that exports run in constant memory.</p>
+ *
+ * <p>{@link #aggregate(EntityContainer, Collection, List, Expression...)} evaluates aggregate
+ * expressions such as sums and averages for the matching entities in the database with one query,
+ * and caches the results per set of predicates until the data changes.</p>
+ *
+ * XXX Prototype of Vaadin/Querydsl integration, don't use in production code
+ *
+ * @author tiwe
+ *
+ * @param <T>
+ */
+public class QuerydslEntityProvider<T> extends MutableLocalEntityProvider<T> {
+
+    private static final long serialVersionUID = 2975186153420946128L;
+
+    private static final Predicate[] NO_PREDICATES = new Predicate[0];
+
+    public static final long DEFAULT_ESTIMATION_TIMEOUT = 30000;
+
+    private static final Map<String, Object> READ_ONLY_HINTS = ImmutableMap.<String, Object>of(
+            "eclipselink.read-only", "true",
+            "org.hibernate.readOnly", "true");
+
+    private static final List<String> FETCH_SIZE_HINTS = ImmutableList.of(
+            "eclipselink.jdbc.fetch-size", "org.hibernate.fetchSize");
+
+    /**
+     * Pool size of the default executor, configurable via the system property
+     * {@code querydsl.provider.poolSize}
+     */
+    public static final int DEFAULT_POOL_SIZE = Integer.getInteger("querydsl.provider.poolSize", 2);
+
+    /**
+     * Queue size of the default executor, configurable via the system property
+     * {@code querydsl.provider.queueSize}
+     */
+    public static final int DEFAULT_QUEUE_SIZE = Integer.getInteger("querydsl.provider.queueSize", 16);
+
+    private static final Executor DEFAULT_EXECUTOR = newExecutor(DEFAULT_POOL_SIZE, DEFAULT_QUEUE_SIZE);
+
+    /**
+     * Identifiers, projected rows and the next page boundary of a loaded page
+     */
+    private static final class LoadedPage {
+
+        private final List<Object> ids;
+
+        @Nullable
+        private final Map<Object, Object> rows;
+
+        @Nullable
+        private final Object[] nextBoundary;
+
+        LoadedPage(List<Object> ids, @Nullable Map<Object, Object> rows, @Nullable Object[] nextBoundary) {
+            this.ids = ids;
+            this.rows = rows;
+            this.nextBoundary = nextBoundary;
+        }
+
+    }
+
+    private final PathBuilder<T> entity;
+
+    private boolean keysetPagination;
+
+    private int pageSize = 100;
+
+    private int maxCachedPages = 4;
+
+    @Nullable
+    private KeysetIndex keysetIndex;
+
+    // whether the order of the keyset index can be seeked, see isSeekable
+    private boolean seekable;
+
+    // whether the database sorts null values first in ascending and descending order, null if
+    // not yet known
+    @Nullable
+    private Boolean nullsFirstAscending, nullsFirstDescending;
+
+    private final CountCache countCache = new CountCache();
+
+    private int streamClearInterval = 1000;
+
+    private int streamFetchSize = 1000;
+
+    private int hierarchyLevels;
+
+    @Nullable
+    private HierarchyCache hierarchyCache;
+
+    @Nullable
+    private transient AggregateCache aggregateCache;
+
+    private long countCacheTimeout;
+
+    private boolean countEstimation;
+
+    private int inChunkSize = 1000;
+
+    @Nullable
+    private String[] projection;
+
+    @Nullable
+    private transient EntityProjection<T> entityProjection;
+
+    // identifiers of the entities which are loaded fully in projection mode
+    private final Set<Object> materialized = Sets.newHashSet();
+
+    private boolean fetchJoins = true;
+
+    private boolean collectionFetching;
+
+    @Nullable
+    private transient FetchPlan<T> fetchPlan;
+
+    @Nullable
+    private transient Set<String> fetchPlanPropertyIds;
+
+    private boolean readOnly;
+
+    private int clearInterval = 10;
+
+    private transient int loadedPages;
+
+    private int evictionWindow;
+
+    private int evictionBatch = 500;
+
+    @Nullable
+    private transient PersistenceContextWindow managedEntities;
+
+    private transient int currentPage;
+
+    private boolean prefetching;
+
+    @Nullable
+    private transient PagePrefetcher<LoadedPage> prefetcher;
+
+    @Nullable
+    private transient Executor executor;
+
+    @Nullable
+    private transient Executor callbackExecutor;
+
+    public QuerydslEntityProvider(Class<T> entityClass, EntityManager entityManager) {
+        super(entityClass, entityManager);
+        this.entity = new PathBuilder<T>(entityClass, defaultVariable(entityClass));
+    }
+
+    @SuppressWarnings("unchecked")
+    public QuerydslEntityProvider(EntityPath<T> entityPath, EntityManager entityManager) {
+        super((Class<T>) entityPath.getType(), entityManager);
+        this.entity = new PathBuilder<T>(entityPath.getType(), entityPath.getMetadata());
+    }
+
+    static String defaultVariable(Class<?> entityClass) {
+        String simpleName = entityClass.getSimpleName();
+        return Character.toLowerCase(simpleName.charAt(0)) + simpleName.substring(1);
+    }
+
+    public PathBuilder<T> getEntityPath() {
+        return entity;
+    }
+
+    public boolean isKeysetPagination() {
+        return keysetPagination;
+    }
+
+    public void setKeysetPagination(boolean keysetPagination) {
+        this.keysetPagination = keysetPagination;
+        invalidate();
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+        invalidate();
+    }
+
+    public int getMaxCachedPages() {
+        return maxCachedPages;
+    }
+
+    public void setMaxCachedPages(int maxCachedPages) {
+        this.maxCachedPages = maxCachedPages;
+        invalidate();
+    }
+
+    public long getCountCacheTimeout() {
+        return countCacheTimeout;
+    }
+
+    /**
+     * Set the time in milliseconds row counts are cached, 0 disables the caching
+     *
+     * @param countCacheTimeout
+     * @throws IllegalArgumentException if the timeout is not positive and count estimation is
+     *         enabled
+     */
+    public void setCountCacheTimeout(long countCacheTimeout) {
+        if (countEstimation && countCacheTimeout <= 0) {
+            throw new IllegalArgumentException("Count estimation requires a positive count cache timeout");
+        }
+        this.countCacheTimeout = countCacheTimeout;
+    }
+
+    public boolean isCountEstimation() {
+        return countEstimation;
+    }
+
+    /**
+     * Set whether the previous count of the predicates is returned, while the count is refined in
+     * the background. Enabling it sets the count cache timeout to
+     * {@value #DEFAULT_ESTIMATION_TIMEOUT} milliseconds, if none is set, so that refined counts
+     * are served from the cache until they expire.
+     *
+     * @param countEstimation
+     */
+    public void setCountEstimation(boolean countEstimation) {
+        this.countEstimation = countEstimation;
+        if (countEstimation && countCacheTimeout <= 0) {
+            countCacheTimeout = DEFAULT_ESTIMATION_TIMEOUT;
+        }
+    }
+
+    public int getInChunkSize() {
+        return inChunkSize;
+    }
+
+    /**
+     * Set the maximum size of IN lists, larger ones are split into chunks
+     *
+     * @param inChunkSize
+     */
+    public void setInChunkSize(int inChunkSize) {
+        this.inChunkSize = inChunkSize;
+    }
+
+    @Nullable
+    public String[] getProjection() {
+        return projection;
+    }
+
+    /**
+     * Load only the given properties and the identifier of the entities into transient
+     * instances, or full entities, if no properties are given. The projected instances are
+     * read-only, use {@link #materialize(Object)} to load an entity fully for editing.
+     *
+     * @param propertyIds
+     */
+    public void setProjection(@Nullable String... propertyIds) {
+        this.projection = propertyIds != null && propertyIds.length > 0 ? propertyIds : null;
+        this.entityProjection = null;
+        materialized.clear();
+        invalidate();
+    }
+
+    /**
+     * Load the given entity fully in projection mode
+     *
+     * @param entityId
+     */
+    public void materialize(Object entityId) {
+        materialized.add(entityId);
+    }
+
+    private EntityProjection<T> getEntityProjection() {
+        if (entityProjection == null) {
+            entityProjection = new EntityProjection<T>(entity, getEntityManager().getMetamodel(),
+                    getEntityClassMetadata().getIdentifierProperty().getName(), projection);
+        }
+        return entityProjection;
+    }
+
+    public boolean isFetchJoins() {
+        return fetchJoins;
+    }
+
+    /**
+     * Set whether the entities of loaded pages are fetched with the to-one associations of the
+     * nested container properties, defaults to true
+     *
+     * @param fetchJoins
+     */
+    public void setFetchJoins(boolean fetchJoins) {
+        this.fetchJoins = fetchJoins;
+    }
+
+    public boolean isCollectionFetching() {
+        return collectionFetching;
+    }
+
+    /**
+     * Set whether the collection valued container properties of the entities of loaded pages
+     * are fetched with the entities, defaults to false. The fetched collections multiply the rows
+     * of the entity query, and entities which are already managed by the entity manager, e.g.
+     * with detaching disabled, keep their collections unloaded.
+     *
+     * @param collectionFetching
+     */
+    public void setCollectionFetching(boolean collectionFetching) {
+        this.collectionFetching = collectionFetching;
+        this.fetchPlan = null;
+    }
+
+    private FetchPlan<T> getFetchPlan(EntityContainer<T> container) {
+        Set<String> propertyIds = Sets.newHashSet();
+        for (Object propertyId : container.getContainerPropertyIds()) {
+            propertyIds.add(propertyId.toString());
+        }
+        if (fetchPlan == null || !propertyIds.equals(fetchPlanPropertyIds)) {
+            fetchPlan = new FetchPlan<T>(entity, getEntityManager().getMetamodel(), propertyIds,
+                    collectionFetching);
+            fetchPlanPropertyIds = propertyIds;
+        }
+        return fetchPlan;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Set whether the entities are loaded read-only, defaults to false
+     *
+     * @param readOnly
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    public int getClearInterval() {
+        return clearInterval;
+    }
+
+    /**
+     * Set the amount of loaded pages after which the persistence context is cleared in read-only
+     * mode, 0 disables the clearing. The entity manager should not be shared with writing
+     * components, since their managed entities are detached as well.
+     *
+     * @param clearInterval
+     */
+    public void setClearInterval(int clearInterval) {
+        this.clearInterval = clearInterval;
+    }
+
+    public int getEvictionWindow() {
+        return evictionWindow;
+    }
+
+    /**
+     * Set the amount of pages before and after the current page whose entities are kept in the
+     * persistence context, 0 disables the eviction
+     *
+     * @param evictionWindow
+     */
+    public void setEvictionWindow(int evictionWindow) {
+        this.evictionWindow = evictionWindow;
+    }
+
+    public int getEvictionBatch() {
+        return evictionBatch;
+    }
+
+    /**
+     * Set the minimum amount of entities outside of the eviction window which are detached at once
+     *
+     * @param evictionBatch
+     */
+    public void setEvictionBatch(int evictionBatch) {
+        this.evictionBatch = evictionBatch;
+    }
+
+    private PersistenceContextWindow getManagedEntities() {
+        if (managedEntities == null) {
+            managedEntities = new PersistenceContextWindow();
+        }
+        return managedEntities;
+    }
+
+    public int getStreamClearInterval() {
+        return streamClearInterval;
+    }
+
+    /**
+     * Set the amount of streamed rows after which the persistence context of the stream is
+     * cleared, 0 disables the clearing, defaults to 1000
+     *
+     * @param streamClearInterval
+     */
+    public void setStreamClearInterval(int streamClearInterval) {
+        this.streamClearInterval = streamClearInterval;
+    }
+
+    public int getStreamFetchSize() {
+        return streamFetchSize;
+    }
+
+    /**
+     * Set the JDBC fetch size of streams, defaults to 1000
+     *
+     * @param streamFetchSize
+     */
+    public void setStreamFetchSize(int streamFetchSize) {
+        this.streamFetchSize = streamFetchSize;
+    }
+
+    public int getHierarchyLevels() {
+        return hierarchyLevels;
+    }
+
+    /**
+     * Set the amount of hierarchy levels loaded when the children of a parent are requested,
+     * e.g. 3 for the children, grandchildren and great-grandchildren, 0 disables the caching of
+     * the hierarchy, defaults to 0
+     *
+     * @param hierarchyLevels
+     */
+    public void setHierarchyLevels(int hierarchyLevels) {
+        this.hierarchyLevels = hierarchyLevels;
+        invalidate();
+    }
+
+    public boolean isPrefetching() {
+        return prefetching;
+    }
+
+    /**
+     * Set whether the pages next to the accessed page are loaded in the background via the
+     * executor, defaults to false
+     *
+     * @param prefetching
+     */
+    public void setPrefetching(boolean prefetching) {
+        this.prefetching = prefetching;
+        cancelPrefetches();
+    }
+
+    private PagePrefetcher<LoadedPage> getPrefetcher() {
+        if (prefetcher == null) {
+            prefetcher = new PagePrefetcher<LoadedPage>();
+        }
+        return prefetcher;
+    }
+
+    /**
+     * Cancel the pending prefetches
+     */
+    void cancelPrefetches() {
+        if (prefetcher != null) {
+            prefetcher.cancel();
+        }
+    }
+
+    /**
+     * Create an executor for background queries with the given number of daemon threads and the
+     * given queue size. Prefetches and count refinements are optional, so tasks which don't fit
+     * into the queue are discarded, and discarded futures are cancelled.
+     *
+     * @param poolSize
+     * @param queueSize
+     * @return
+     */
+    public static Executor newExecutor(int poolSize, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("querydsl-provider-%d").build(),
+                new ThreadPoolExecutor.DiscardPolicy() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                        // e.g. a discarded prefetch is loaded by the container thread on access
+                        if (r instanceof Future) {
+                            ((Future<?>) r).cancel(false);
+                        }
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Get the executor for background queries, defaults to a shared executor with
+     * {@link #DEFAULT_POOL_SIZE} threads and a queue of {@link #DEFAULT_QUEUE_SIZE} tasks
+     *
+     * @return
+     */
+    public Executor getExecutor() {
+        return executor != null ? executor : DEFAULT_EXECUTOR;
+    }
+
+    /**
+     * Set the executor for background queries
+     *
+     * @param executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Nullable
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Set the executor used to notify the container about the results of background queries,
+     * e.g. one which runs the notification via {@code UI.access(Runnable)}. Without a callback
+     * executor the container is not notified, since the notifications need the session lock, and
+     * refined counts are returned on the next size call.
+     *
+     * @param callbackExecutor
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Discard the cached pages, page boundaries and row counts
+     */
+    public void invalidate() {
+        keysetIndex = null;
+        hierarchyCache = null;
+        if (aggregateCache != null) {
+            aggregateCache.clear();
+        }
+        countCache.clear();
+        cancelPrefetches();
+        if (managedEntities != null) {
+            managedEntities.invalidate();
+        }
+    }
+
+    protected PathBuilder<Object> getIdentifierPath() {
+        return entity.get(getEntityClassMetadata().getIdentifierProperty().getName());
+    }
+
+    @SuppressWarnings("unchecked")
+    protected PathBuilder<Object> getPath(String propertyId) {
+        PathBuilder<?> path = entity;
+        for (String name : propertyId.split("\\.")) {
+            path = path.get(name);
+        }
+        return (PathBuilder<Object>) path;
+    }
+
+    /**
+     * Prepare the given predicate for execution by this provider
+     *
+     * @param predicate
+     * @return
+     */
+    public Predicate transform(Predicate predicate) {
+        return InChunker.chunk(predicate, inChunkSize);
+    }
+
+    protected JPAQuery createQuery(Predicate... where) {
+        return createQuery(getEntityManager(), where);
+    }
+
+    private JPAQuery createQuery(EntityManager entityManager, Predicate... where) {
+        JPAQuery query = new JPAQuery(entityManager).from(entity).where(where);
+        if (readOnly) {
+            for (Map.Entry<String, Object> hint : READ_ONLY_HINTS.entrySet()) {
+                query.setHint(hint.getKey(), hint.getValue());
+            }
+            query.setFlushMode(FlushModeType.COMMIT);
+        }
+        return query;
+    }
+
+    /**
+     * Get the Querydsl predicates of the given filter. Vaadin filters are translated into
+     * predicates and combined with the Querydsl predicates of the filter.
+     *
+     * @param container
+     * @param filter
+     * @return the predicates or null, if the filter can't be translated and contains no Querydsl
+     *         predicates
+     * @throws UnsupportedOperationException if the filter contains Querydsl predicates and
+     *         filters which can't be translated
+     */
+    @Nullable
+    protected Predicate[] getPredicates(EntityContainer<T> container, @Nullable Filter filter) {
+        if (filter == null) {
+            return NO_PREDICATES;
+        }
+        List<Predicate> predicates = Lists.newArrayList();
+        if (collectPredicates(container, filter, predicates)) {
+            return predicates.toArray(new Predicate[predicates.size()]);
+        } else if (FilterTranslator.containsPredicates(filter)) {
+            throw new UnsupportedOperationException("The filters " + filter
+                    + " can't be combined with Querydsl predicates");
+        } else {
+            return null;
+        }
+    }
+
+    @Nullable
+    private Predicate[] getPredicates(EntityContainer<T> container, Collection<Filter> filters) {
+        if (filters.isEmpty()) {
+            return NO_PREDICATES;
+        } else {
+            return getPredicates(container, new And(filters.toArray(new Filter[filters.size()])));
+        }
+    }
+
+    private boolean collectPredicates(EntityContainer<T> container, Filter filter,
+            List<Predicate> predicates) {
+        Predicate predicate = null;
+        if (filter instanceof PredicateFilter) {
+            predicate = ((PredicateFilter) filter).getPredicate();
+        } else if (container instanceof QuerydslJPAContainer) {
+            predicate = ((QuerydslJPAContainer<T>) container).getPredicate(filter);
+        }
+        if (predicate == null && filter instanceof And) {
+            for (Filter f : ((And) filter).getFilters()) {
+                if (!collectPredicates(container, f, predicates)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (predicate == null) {
+            predicate = FilterTranslator.translate(entity, filter);
+        }
+        if (predicate != null) {
+            predicates.add(predicate);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Get the order specifiers for the given sort properties. The original order specifiers of
+     * the container are used, if they match, and the identifier is appended as a tiebreaker.
+     *
+     * @param container
+     * @param sortBy
+     * @return
+     */
+    protected OrderSpecifier<?>[] getOrderSpecifiers(EntityContainer<T> container, List<SortBy> sortBy) {
+        List<OrderSpecifier<?>> order = Lists.newArrayList();
+        OrderSpecifier<?>[] original = null;
+        if (container instanceof QuerydslJPAContainer) {
+            original = ((QuerydslJPAContainer<T>) container).getOrderSpecifiers();
+        }
+        boolean matches = original != null && original.length == sortBy.size();
+        for (int i = 0; matches && i < sortBy.size(); i++) {
+            matches = original[i].getTarget() instanceof Path
+                   && original[i].isAscending() == sortBy.get(i).isAscending()
+                   && sortBy.get(i).getPropertyId().equals(
+                           PathResolver.getPropertyId((Path<?>) original[i].getTarget()));
+        }
+        String idProperty = getEntityClassMetadata().getIdentifierProperty().getName();
+        boolean ordersById = false;
+        for (int i = 0; i < sortBy.size(); i++) {
+            order.add(matches ? original[i] : createOrderSpecifier(sortBy.get(i)));
+            ordersById |= idProperty.equals(sortBy.get(i).getPropertyId());
+        }
+        if (!ordersById) {
+            order.add(createOrderSpecifier(new SortBy(idProperty, true)));
+        }
+        return order.toArray(new OrderSpecifier<?>[order.size()]);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected OrderSpecifier<?> createOrderSpecifier(SortBy sortBy) {
+        Expression<?> path = getPath(sortBy.getPropertyId().toString());
+        return new OrderSpecifier(sortBy.isAscending() ? Order.ASC : Order.DESC, path);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static OrderSpecifier<?>[] reverse(OrderSpecifier<?>[] order) {
+        OrderSpecifier<?>[] reversed = new OrderSpecifier<?>[order.length];
+        for (int i = 0; i < order.length; i++) {
+            OrderSpecifier.NullHandling nullHandling = order[i].getNullHandling();
+            if (nullHandling == OrderSpecifier.NullHandling.NullsFirst) {
+                nullHandling = OrderSpecifier.NullHandling.NullsLast;
+            } else if (nullHandling == OrderSpecifier.NullHandling.NullsLast) {
+                nullHandling = OrderSpecifier.NullHandling.NullsFirst;
+            }
+            reversed[i] = new OrderSpecifier(order[i].isAscending() ? Order.DESC : Order.ASC,
+                    order[i].getTarget(), nullHandling);
+        }
+        return reversed;
+    }
+
+    /**
+     * Get the sort key values of the given entity
+     *
+     * @param entityId
+     * @param order
+     * @return
+     */
+    @Nullable
+    protected Object[] getKey(Object entityId, OrderSpecifier<?>[] order) {
+        Expression<?>[] targets = new Expression<?>[order.length];
+        for (int i = 0; i < order.length; i++) {
+            targets[i] = order[i].getTarget();
+        }
+        Tuple tuple = createQuery(getIdentifierPath().eq(entityId)).uniqueResult(targets);
+        return tuple != null ? tuple.toArray() : null;
+    }
+
+    /**
+     * Get whether the rows of the given order can be located via {@link #after(OrderSpecifier[], Object[])}.
+     * This requires that none of the sort targets can be null, since null values don't match the
+     * comparisons and their position in the order depends on the database.
+     *
+     * @param order
+     * @return true, if all sort targets are identifiers, primitives or non-optional properties
+     */
+    protected boolean isSeekable(OrderSpecifier<?>[] order) {
+        for (OrderSpecifier<?> o : order) {
+            if (isNullable(o.getTarget())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get whether the given sort target can be null
+     *
+     * @param target
+     * @return false, if the target is an identifier, a primitive or a non-optional property
+     */
+    protected boolean isNullable(Expression<?> target) {
+        if (!(target instanceof Path)) {
+            return true;
+        }
+        ManagedType<?> type = getEntityManager().getMetamodel().managedType(entity.getType());
+        for (String name : PathResolver.getPropertyId((Path<?>) target).split("\\.")) {
+            if (type == null) {
+                return true;
+            }
+            Attribute<?, ?> attribute = type.getAttribute(name);
+            if (!(attribute instanceof SingularAttribute)) {
+                return true;
+            }
+            SingularAttribute<?, ?> singular = (SingularAttribute<?, ?>) attribute;
+            if (singular.isOptional() && !singular.isId() && !singular.getJavaType().isPrimitive()) {
+                return true;
+            }
+            type = singular.getType() instanceof ManagedType ? (ManagedType<?>) singular.getType() : null;
+        }
+        return false;
+    }
+
+    /**
+     * Create a predicate which matches the rows after the given sort key in the given order,
+     * which needs to be total and seekable, see {@link #isSeekable(OrderSpecifier[])}.
+     *
+     * @param order
+     * @param key
+     * @return
+     */
+    protected static Predicate after(OrderSpecifier<?>[] order, Object[] key) {
+        Predicate[] disjuncts = new Predicate[order.length];
+        Predicate prefix = null;
+        for (int i = 0; i < order.length; i++) {
+            Expression<?> target = order[i].getTarget();
+            Expression<Object> value = ConstantImpl.create(key[i]);
+            Predicate comparison = PredicateOperation.create(order[i].isAscending() ? Ops.GT : Ops.LT,
+                    target, value);
+            disjuncts[i] = prefix != null ? ExpressionUtils.and(prefix, comparison) : comparison;
+            Predicate equality = PredicateOperation.create(Ops.EQ, target, value);
+            prefix = prefix != null ? ExpressionUtils.and(prefix, equality) : equality;
+        }
+        return ExpressionUtils.anyOf(disjuncts);
+    }
+
+    @SuppressWarnings("unchecked")
+    public T getEntity(EntityContainer<T> container, Object entityId) {
+        if (readOnly && projection == null) {
+            return getEntityManager().find(entity.getType(), entityId, READ_ONLY_HINTS);
+        } else if (projection == null) {
+            T loaded = super.getEntity(container, entityId);
+            if (evictionWindow > 0 && loaded != null && !isEntitiesDetached()) {
+                getManagedEntities().add(currentPage, Collections.singleton(loaded));
+            }
+            return loaded;
+        } else if (materialized.contains(entityId)) {
+            return super.getEntity(container, entityId);
+        }
+        Object row = keysetIndex != null ? keysetIndex.getRow(entityId) : null;
+        if (row == null) {
+            EntityProjection<T> p = getEntityProjection();
+            row = p.join(createQuery(getIdentifierPath().eq(entityId))).uniqueResult(p.getBean());
+        }
+        return (T) row;
+    }
+
+    public boolean containsEntity(EntityContainer<T> container, Object entityId, Filter filter) {
+        Predicate[] where = getPredicates(container, filter);
+        if (where == null) {
+            return super.containsEntity(container, entityId, filter);
+        }
+        return createQuery(where).where(getIdentifierPath().eq(entityId)).exists();
+    }
+
+    public List<Object> getAllEntityIdentifiers(EntityContainer<T> container, Filter filter,
+            List<SortBy> sortBy) {
+        if (hierarchyLevels > 0 && container instanceof JPAContainer
+                && ((JPAContainer<T>) container).getParentProperty() != null) {
+            List<Object> children = getChildIdentifiers(container, filter, sortBy);
+            if (children != null) {
+                return children;
+            }
+        }
+        Predicate[] where = getPredicates(container, filter);
+        if (where == null) {
+            return super.getAllEntityIdentifiers(container, filter, sortBy);
+        }
+        return createQuery(where)
+                .orderBy(getOrderSpecifiers(container, sortBy))
+                .list(getIdentifierPath());
+    }
+
+    /**
+     * Get the child identifiers requested via the given filter from the hierarchy cache, if the
+     * filter restricts the parent property to a parent or to null
+     *
+     * @param container
+     * @param filter
+     * @param sortBy
+     * @return the identifiers or null, if the filter doesn't select children
+     */
+    @Nullable
+    private List<Object> getChildIdentifiers(EntityContainer<T> container, Filter filter,
+            List<SortBy> sortBy) {
+        String parentProperty = ((JPAContainer<T>) container).getParentProperty();
+        String parentIdProperty = parentProperty + "."
+                + getEntityClassMetadata().getIdentifierProperty().getName();
+        List<Filter> filters = Lists.newArrayList();
+        flatten(filter, filters);
+        Filter parentFilter = null;
+        Object parentId = null;
+        for (Filter f : filters) {
+            if (f instanceof Equal && ((Equal) f).getPropertyId().equals(parentIdProperty)) {
+                parentFilter = f;
+                parentId = ((Equal) f).getValue();
+                break;
+            } else if (f instanceof IsNull && ((IsNull) f).getPropertyId().equals(parentProperty)) {
+                parentFilter = f;
+                break;
+            }
+        }
+        if (parentFilter == null) {
+            return null;
+        }
+        filters.remove(parentFilter);
+        Predicate[] where = getPredicates(container, filters);
+        if (where == null) {
+            return null;
+        }
+        OrderSpecifier<?>[] order = getOrderSpecifiers(container, sortBy);
+        HierarchyCache cache = getHierarchyCache(where, order);
+        List<Object> children = cache.getChildren(parentId);
+        if (children == null) {
+            loadHierarchy(cache, parentProperty, parentId, where, order);
+            children = cache.getChildren(parentId);
+        }
+        return children;
+    }
+
+    /**
+     * Get whether the given entity has children under the given container filters, if the
+     * hierarchy is cached
+     *
+     * @param container
+     * @param filters
+     * @param sortBy
+     * @param entityId
+     * @return true or false, or null, if the hierarchy is not cached for the given filters
+     */
+    @Nullable
+    Boolean hasChildren(EntityContainer<T> container, Collection<Filter> filters, List<SortBy> sortBy,
+            Object entityId) {
+        String parentProperty = container instanceof JPAContainer
+                ? ((JPAContainer<T>) container).getParentProperty() : null;
+        if (hierarchyLevels == 0 || parentProperty == null) {
+            return null;
+        }
+        Predicate[] where = getPredicates(container, filters);
+        if (where == null) {
+            return null;
+        }
+        HierarchyCache cache = getHierarchyCache(where, getOrderSpecifiers(container, sortBy));
+        Integer count = cache.getChildCount(entityId);
+        if (count == null) {
+            loadChildCounts(cache, parentProperty, Collections.singletonList(entityId), where);
+            count = cache.getChildCount(entityId);
+        }
+        return count > 0;
+    }
+
+    private HierarchyCache getHierarchyCache(Predicate[] where, OrderSpecifier<?>[] order) {
+        if (hierarchyCache == null || !hierarchyCache.matches(where, order)) {
+            hierarchyCache = new HierarchyCache(where, order);
+        }
+        return hierarchyCache;
+    }
+
+    private PathBuilder<Object> getParentIdPath(String parentProperty) {
+        return getPath(parentProperty).get(getEntityClassMetadata().getIdentifierProperty().getName());
+    }
+
+    private static void flatten(Filter filter, List<Filter> filters) {
+        if (filter instanceof And) {
+            for (Filter f : ((And) filter).getFilters()) {
+                flatten(f, filters);
+            }
+        } else {
+            filters.add(filter);
+        }
+    }
+
+    /**
+     * Load the children of the given parent and their descendants up to the hierarchy levels
+     * into the given cache, with one query per level
+     *
+     * @param cache
+     * @param parentProperty
+     * @param parentId parent identifier or null for the roots
+     * @param where
+     * @param order
+     */
+    private void loadHierarchy(HierarchyCache cache, String parentProperty, @Nullable Object parentId,
+            Predicate[] where, OrderSpecifier<?>[] order) {
+        PathBuilder<Object> parent = getPath(parentProperty);
+        PathBuilder<Object> parentIdPath = getParentIdPath(parentProperty);
+        List<Object> parents;
+        if (parentId != null) {
+            parents = Collections.singletonList(parentId);
+        } else {
+            parents = createQuery(where).where(parent.isNull()).orderBy(order).list(getIdentifierPath());
+            cache.putChildren(null, parents);
+        }
+        for (int level = parentId != null ? 0 : 1; level < hierarchyLevels && !parents.isEmpty(); level++) {
+            Map<Object, List<Object>> children = Maps.newHashMapWithExpectedSize(parents.size());
+            for (Object id : parents) {
+                children.put(id, Lists.<Object>newArrayList());
+            }
+            List<Tuple> rows = createQuery(where)
+                    .where(transform(parentIdPath.in(parents)))
+                    .orderBy(order)
+                    .list(parentIdPath, getIdentifierPath());
+            List<Object> next = Lists.newArrayListWithCapacity(rows.size());
+            for (Tuple row : rows) {
+                List<Object> siblings = children.get(row.get(0, Object.class));
+                if (siblings == null) {
+                    siblings = Lists.newArrayList();
+                    children.put(row.get(0, Object.class), siblings);
+                }
+                siblings.add(row.get(1, Object.class));
+                next.add(row.get(1, Object.class));
+            }
+            for (Map.Entry<Object, List<Object>> entry : children.entrySet()) {
+                cache.putChildren(entry.getKey(), entry.getValue());
+            }
+            parents = next;
+        }
+        if (!parents.isEmpty()) {
+            // the children of the deepest level are not loaded
+            loadChildCounts(cache, parentProperty, parents, where);
+        }
+    }
+
+    /**
+     * Load the child counts of the given parents into the given cache with one query
+     *
+     * @param cache
+     * @param parentProperty
+     * @param parentIds
+     * @param where
+     */
+    private void loadChildCounts(HierarchyCache cache, String parentProperty, Collection<Object> parentIds,
+            Predicate[] where) {
+        PathBuilder<Object> parentIdPath = getParentIdPath(parentProperty);
+        List<Tuple> rows = createQuery(where)
+                .where(transform(parentIdPath.in(parentIds)))
+                .groupBy(parentIdPath)
+                .list(parentIdPath, getIdentifierPath().count());
+        Map<Object, Integer> counts = Maps.newHashMapWithExpectedSize(parentIds.size());
+        for (Object id : parentIds) {
+            counts.put(id, 0);
+        }
+        for (Tuple row : rows) {
+            counts.put(row.get(0, Object.class), row.get(1, Long.class).intValue());
+        }
+        cache.putChildCounts(counts);
+    }
+
+    public int getEntityCount(EntityContainer<T> container, Filter filter) {
+        Predicate[] where = getPredicates(container, filter);
+        if (where == null) {
+            return super.getEntityCount(container, filter);
+        }
+        Set<Predicate> key = CountCache.key(where);
+        Integer count = countCache.get(key, countCacheTimeout);
+        if (count != null) {
+            return count;
+        }
+        if (countEstimation) {
+            Integer estimate = countCache.estimate(key);
+            if (estimate != null) {
+                refineCount(container, key, where, estimate);
+                return estimate;
+            }
+        }
+        int generation = countCache.getGeneration();
+        count = (int) createQuery(where).count();
+        countCache.put(key, count, generation);
+        return count;
+    }
+
+    private void refineCount(final EntityContainer<T> container, final Set<Predicate> key,
+            final Predicate[] where, final int estimate) {
+        if (!countCache.addPending(key)) {
+            return;
+        }
+        final int generation = countCache.getGeneration();
+        final EntityManagerFactory entityManagerFactory = getEntityManager().getEntityManagerFactory();
+        getExecutor().execute(new FutureTask<Void>(new Runnable() {
+            public void run() {
+                EntityManager entityManager = entityManagerFactory.createEntityManager();
+                try {
+                    int count = (int) new JPAQuery(entityManager).from(entity).where(where).count();
+                    if (countCache.put(key, count, generation) && count != estimate) {
+                        fireItemSetChange(container);
+                    }
+                } finally {
+                    entityManager.close();
+                }
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                // also when the refinement is discarded by the executor
+                countCache.removePending(key);
+            }
+        });
+    }
+
+    private void fireItemSetChange(final EntityContainer<T> container) {
+        if (container instanceof QuerydslJPAContainer && callbackExecutor != null) {
+            callbackExecutor.execute(new Runnable() {
+                public void run() {
+                    ((QuerydslJPAContainer<T>) container).fireItemSetChange();
+                }
+            });
+        }
+    }
+
+    public Object getEntityIdentifierAt(EntityContainer<T> container, Filter filter,
+            List<SortBy> sortBy, int index) {
+        Predicate[] where = getPredicates(container, filter);
+        if (where == null) {
+            return super.getEntityIdentifierAt(container, filter, sortBy, index);
+        }
+        return getIdentifierAt(container, where, getOrderSpecifiers(container, sortBy), index);
+    }
+
+    @Nullable
+    private Object getIdentifierAt(EntityContainer<T> container, Predicate[] where,
+            OrderSpecifier<?>[] order, int index) {
+        if (keysetIndex == null || !keysetIndex.matches(where, order)) {
+            keysetIndex = new KeysetIndex(where, order, maxCachedPages);
+            seekable = keysetPagination && isSeekable(order);
+        }
+        int page = index / pageSize;
+        if (evictionWindow > 0 && page != currentPage) {
+            currentPage = page;
+            evict(container);
+        }
+        List<Object> ids = keysetIndex.getPage(page);
+        if (ids == null) {
+            ids = loadPage(container, keysetIndex, where, order, page);
+        }
+        if (prefetching) {
+            prefetch(keysetIndex, where, order, page);
+        }
+        int offset = index % pageSize;
+        return offset < ids.size() ? ids.get(offset) : null;
+    }
+
+    private void prefetch(KeysetIndex index, final Predicate[] where, final OrderSpecifier<?>[] order,
+            int page) {
+        PagePrefetcher<LoadedPage> p = getPrefetcher();
+        final EntityManagerFactory entityManagerFactory = getEntityManager().getEntityManagerFactory();
+        final EntityProjection<T> entityProjection = projection != null ? getEntityProjection() : null;
+        final boolean seek = seekable;
+        for (final int next : p.access(index, page)) {
+            if (index.getPage(next) != null) {
+                continue;
+            }
+            final Map.Entry<Integer, Object[]> boundary = keysetPagination ? index.getBoundary(next) : null;
+            p.submit(next, new Callable<LoadedPage>() {
+                public LoadedPage call() {
+                    EntityManager entityManager = entityManagerFactory.createEntityManager();
+                    try {
+                        return queryPage(entityManager, where, order, seek, boundary, next, entityProjection);
+                    } finally {
+                        entityManager.close();
+                    }
+                }
+            }, getExecutor());
+        }
+    }
+
+    private List<Object> loadPage(EntityContainer<T> container, KeysetIndex index,
+            Predicate[] where, OrderSpecifier<?>[] order, int page) {
+        if (readOnly && clearInterval > 0 && ++loadedPages % clearInterval == 0) {
+            getEntityManager().clear();
+        }
+        LoadedPage loaded = prefetcher != null ? prefetcher.take(index, page) : null;
+        if (loaded == null) {
+            Map.Entry<Integer, Object[]> boundary = keysetPagination ? index.getBoundary(page) : null;
+            loaded = queryPage(getEntityManager(), where, order, seekable, boundary, page,
+                    projection != null ? getEntityProjection() : null);
+        }
+        if (loaded.rows != null) {
+            index.putPage(page, loaded.ids, loaded.rows);
+        } else {
+            index.putPage(page, loaded.ids);
+            if (fetchJoins && !loaded.ids.isEmpty()) {
+                List<T> entities = fetchEntities(container, loaded.ids);
+                if (evictionWindow > 0) {
+                    getManagedEntities().add(page, entities);
+                }
+            }
+        }
+        if (loaded.nextBoundary != null) {
+            index.putBoundary(page + 1, loaded.nextBoundary);
+        }
+        if (hierarchyLevels > 0 && !loaded.ids.isEmpty() && container instanceof JPAContainer
+                && ((JPAContainer<T>) container).getParentProperty() != null) {
+            loadChildCounts(getHierarchyCache(where, order), ((JPAContainer<T>) container).getParentProperty(),
+                    loaded.ids, where);
+        }
+        return loaded.ids;
+    }
+
+    /**
+     * Query the given page via the given entity manager. This doesn't access the state of the
+     * container, so that it can be run in the background.
+     *
+     * @param entityManager
+     * @param where
+     * @param order
+     * @param seek whether the boundary of the next page is recorded
+     * @param boundary closest known page boundary or null
+     * @param page
+     * @param entityProjection projection of the rows or null
+     * @return
+     */
+    private LoadedPage queryPage(EntityManager entityManager, Predicate[] where,
+            OrderSpecifier<?>[] order, boolean seek, @Nullable Map.Entry<Integer, Object[]> boundary, int page,
+            @Nullable EntityProjection<T> entityProjection) {
+        JPAQuery query = createQuery(entityManager, where).orderBy(order);
+        int startPage = 0;
+        if (boundary != null) {
+            query.where(after(order, boundary.getValue()));
+            startPage = boundary.getKey();
+        }
+        query.offset((long) (page - startPage) * pageSize).limit(pageSize);
+
+        boolean projecting = entityProjection != null;
+        Expression<?>[] targets = new Expression<?>[order.length + (projecting ? 2 : 1)];
+        for (int i = 0; i < order.length; i++) {
+            targets[i] = order[i].getTarget();
+        }
+        targets[order.length] = getIdentifierPath();
+        if (projecting) {
+            entityProjection.join(query);
+            targets[order.length + 1] = entityProjection.getBean();
+        }
+        List<Tuple> rows = query.list(targets);
+
+        List<Object> ids = Lists.newArrayListWithCapacity(rows.size());
+        for (Tuple row : rows) {
+            ids.add(row.get(order.length, Object.class));
+        }
+        Map<Object, Object> projectedRows = null;
+        if (projecting) {
+            projectedRows = Maps.newHashMapWithExpectedSize(rows.size());
+            for (Tuple row : rows) {
+                projectedRows.put(row.get(order.length, Object.class), row.get(order.length + 1, Object.class));
+            }
+        }
+        Object[] nextBoundary = null;
+        if (seek && rows.size() == pageSize) {
+            Object[] key = Arrays.copyOf(rows.get(rows.size() - 1).toArray(), order.length);
+            if (!Arrays.asList(key).contains(null)) {
+                nextBoundary = key;
+            }
+        }
+        return new LoadedPage(ids, projectedRows, nextBoundary);
+    }
+
+    /**
+     * Stream the entities matching the given filters in the given order. The query is executed
+     * as a forward-only cursor with read-only hints via a separate entity manager, which is
+     * closed when the returned iterator is closed. In projection mode the projected instances are
+     * streamed.
+     *
+     * @param container
+     * @param filters
+     * @param sortBy
+     * @return
+     * @throws UnsupportedOperationException if the filters are not backed by Querydsl predicates
+     */
+    public CloseableIterator<T> iterate(EntityContainer<T> container, Collection<Filter> filters,
+            List<SortBy> sortBy) {
+        Predicate[] where = getStreamPredicates(container, filters);
+        EntityManager entityManager = getEntityManager().getEntityManagerFactory().createEntityManager();
+        try {
+            JPAQuery query = createStreamQuery(entityManager, container, where, sortBy);
+            CloseableIterator<T> results;
+            if (projection != null) {
+                EntityProjection<T> p = getEntityProjection();
+                results = p.join(query).iterate(p.getBean());
+            } else if (fetchJoins) {
+                // to-one associations only, collection fetch joins would repeat the rows
+                FetchPlan<T> plan = new FetchPlan<T>(entity, entityManager.getMetamodel(),
+                        container.getContainerPropertyIds(), false);
+                results = plan.fetch(query).iterate(entity);
+            } else {
+                results = query.iterate(entity);
+            }
+            return new StreamIterator<T>(results, entityManager, streamClearInterval);
+        } catch (RuntimeException e) {
+            entityManager.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Stream the values of the given value properties of the entities matching the given filters
+     * in the given order like {@link #iterate(EntityContainer, Collection, List)}, without
+     * loading entities. To-one associations on the property paths are left joined.
+     *
+     * @param container
+     * @param filters
+     * @param sortBy
+     * @param propertyIds
+     * @return
+     * @throws UnsupportedOperationException if the filters are not backed by Querydsl predicates
+     */
+    public CloseableIterator<Tuple> iterateColumns(EntityContainer<T> container, Collection<Filter> filters,
+            List<SortBy> sortBy, String... propertyIds) {
+        Predicate[] where = getStreamPredicates(container, filters);
+        EntityManager entityManager = getEntityManager().getEntityManagerFactory().createEntityManager();
+        try {
+            ColumnProjection<T> p = new ColumnProjection<T>(entity, entityManager.getMetamodel(), propertyIds);
+            JPAQuery query = p.join(createStreamQuery(entityManager, container, where, sortBy));
+            // scalar results don't fill the persistence context
+            return new StreamIterator<Tuple>(query.iterate(p.getColumns()), entityManager, 0);
+        } catch (RuntimeException e) {
+            entityManager.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Evaluate the given aggregate expressions, e.g. {@code person.primitiveDouble.sum()}, for the entities
+     * matching the given filters in one query. The results are cached until the provider is
+     * invalidated, e.g. via a write operation or a refresh of the container.
+     *
+     * @param container
+     * @param filters
+     * @param groupBy group by expressions, the rows are ordered by them
+     * @param aggregates
+     * @return one row of the group by and aggregate values per group or one row of the aggregate
+     *         values, if there are no group by expressions
+     */
+    public List<Tuple> aggregate(EntityContainer<T> container, Collection<Filter> filters,
+            List<? extends Expression<?>> groupBy, Expression<?>... aggregates) {
+        Predicate[] where = getPredicates(container, filters);
+        if (where == null) {
+            throw new UnsupportedOperationException("Only filters backed by Querydsl predicates can be aggregated");
+        }
+        if (aggregateCache == null) {
+            aggregateCache = new AggregateCache();
+        }
+        List<Tuple> rows = aggregateCache.get(where, groupBy, aggregates);
+        if (rows == null) {
+            rows = aggregate(createQuery(where), groupBy, aggregates);
+            aggregateCache.put(where, groupBy, aggregates, rows);
+        }
+        return rows;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static List<Tuple> aggregate(JPAQuery query, List<? extends Expression<?>> groupBy,
+            Expression<?>... aggregates) {
+        List<Expression<?>> selected = Lists.newArrayList(groupBy);
+        selected.addAll(Arrays.asList(aggregates));
+        Expression<?>[] columns = selected.toArray(new Expression<?>[selected.size()]);
+        if (groupBy.isEmpty()) {
+            return Collections.singletonList(query.uniqueResult(columns));
+        } else {
+            for (Expression<?> expr : groupBy) {
+                query.groupBy(expr);
+                query.orderBy(new OrderSpecifier(Order.ASC, expr));
+            }
+            return Collections.unmodifiableList(query.list(columns));
+        }
+    }
+
+    private Predicate[] getStreamPredicates(EntityContainer<T> container, Collection<Filter> filters) {
+        Predicate[] where = getPredicates(container, filters);
+        if (where == null) {
+            throw new UnsupportedOperationException("Only filters backed by Querydsl predicates can be streamed");
+        }
+        return where;
+    }
+
+    private JPAQuery createStreamQuery(EntityManager entityManager, EntityContainer<T> container,
+            Predicate[] where, List<SortBy> sortBy) {
+        JPAQuery query = createQuery(entityManager, where).orderBy(getOrderSpecifiers(container, sortBy));
+        for (Map.Entry<String, Object> hint : READ_ONLY_HINTS.entrySet()) {
+            query.setHint(hint.getKey(), hint.getValue());
+        }
+        for (String hint : FETCH_SIZE_HINTS) {
+            query.setHint(hint, streamFetchSize);
+        }
+        return query;
+    }
+
+    /**
+     * Load the given entities with the fetch joins of the container properties into the
+     * persistence context, from where they are returned by {@link #getEntity(EntityContainer, Object)}
+     *
+     * @param container
+     * @param ids
+     */
+    private List<T> fetchEntities(EntityContainer<T> container, List<Object> ids) {
+        FetchPlan<T> plan = getFetchPlan(container);
+        if (!plan.isEmpty()) {
+            return plan.fetch(createQuery(transform(getIdentifierPath().in(ids)))).list(entity);
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Detach the entities outside of the eviction window from the persistence context
+     *
+     * @param container
+     */
+    private void evict(EntityContainer<T> container) {
+        Set<Object> modified;
+        if (container instanceof QuerydslJPAContainer) {
+            modified = ((QuerydslJPAContainer<T>) container).getModifiedItemIds();
+        } else if (container.isModified()) {
+            // the modified items are not known, so the buffered changes keep all entities managed
+            return;
+        } else {
+            modified = Collections.emptySet();
+        }
+        EntityManager entityManager = getEntityManager();
+        PersistenceUnitUtil persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+        List<Object> kept = Lists.newArrayList();
+        for (Object managed : getManagedEntities().evict(currentPage, evictionWindow, evictionBatch)) {
+            if (!modified.isEmpty() && modified.contains(persistenceUnitUtil.getIdentifier(managed))) {
+                kept.add(managed);
+            } else if (entityManager.contains(managed)) {
+                entityManager.detach(managed);
+            }
+        }
+        if (!kept.isEmpty()) {
+            // evicted with a later batch, once the changes are committed or discarded
+            getManagedEntities().add(currentPage, kept);
+        }
+    }
+
+    public Object getFirstEntityIdentifier(EntityContainer<T> container, Filter filter,
+            List<SortBy> sortBy) {
+        Predicate[] where = getPredicates(container, filter);
+        if (where == null) {
+            return super.getFirstEntityIdentifier(container, filter, sortBy);
+        }
+        return getFirstIdentifier(where, getOrderSpecifiers(container, sortBy));
+    }
+
+    public Object getLastEntityIdentifier(EntityContainer<T> container, Filter filter,
+            List<SortBy> sortBy) {
+        Predicate[] where = getPredicates(container, filter);
+        if (where == null) {
+            return super.getLastEntityIdentifier(container, filter, sortBy);
+        }
+        return getFirstIdentifier(where, reverse(getOrderSpecifiers(container, sortBy)));
+    }
+
+    public Object getNextEntityIdentifier(EntityContainer<T> container, Object entityId,
+            Filter filter, List<SortBy> sortBy) {
+        Predicate[] where = getPredicates(container, filter);
+        if (where == null) {
+            return super.getNextEntityIdentifier(container, entityId, filter, sortBy);
+        }
+        return getAdjacentIdentifier(container, entityId, where, getOrderSpecifiers(container, sortBy), true);
+    }
+
+    public Object getPreviousEntityIdentifier(EntityContainer<T> container, Object entityId,
+            Filter filter, List<SortBy> sortBy) {
+        Predicate[] where = getPredicates(container, filter);
+        if (where == null) {
+            return super.getPreviousEntityIdentifier(container, entityId, filter, sortBy);
+        }
+        return getAdjacentIdentifier(container, entityId, where, getOrderSpecifiers(container, sortBy), false);
+    }
+
+    @Nullable
+    private Object getFirstIdentifier(Predicate[] where, OrderSpecifier<?>[] order) {
+        List<Object> ids = createQuery(where).orderBy(order).limit(1).list(getIdentifierPath());
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
+    /**
+     * Get the identifier next to the given entity in the given order. The neighbours of rows in
+     * the loaded pages are taken from the pages, other rows are located via a seek past their
+     * sort key.
+     *
+     * @param container
+     * @param entityId
+     * @param where
+     * @param order
+     * @param next whether to get the next or the previous identifier
+     * @return
+     */
+    @Nullable
+    private Object getAdjacentIdentifier(EntityContainer<T> container, Object entityId, Predicate[] where,
+            OrderSpecifier<?>[] order, boolean next) {
+        if (keysetIndex != null && keysetIndex.matches(where, order)) {
+            int page = keysetIndex.getPageOf(entityId);
+            if (page >= 0) {
+                int index = page * pageSize + keysetIndex.getPage(page).indexOf(entityId) + (next ? 1 : -1);
+                return index >= 0 ? getIdentifierAt(container, where, order, index) : null;
+            }
+        }
+        if (!next) {
+            order = reverse(order);
+        }
+        Object[] key = getKey(entityId, order);
+        if (key == null) {
+            return null;
+        }
+        Predicate after = isSeekable(order) ? after(order, key) : afterNullable(order, key);
+        List<Object> ids = createQuery(where)
+                .where(after)
+                .orderBy(order).limit(1)
+                .list(getIdentifierPath());
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
+    /**
+     * Create a predicate which matches the rows after the given sort key in the given total order,
+     * whose sort targets may be null. Null values are placed as specified by the null handling of
+     * the order specifiers or else according to the null ordering of the database, see
+     * {@link #isNullsFirst(OrderSpecifier)}.
+     *
+     * @param order
+     * @param key
+     * @return
+     */
+    private Predicate afterNullable(OrderSpecifier<?>[] order, Object[] key) {
+        List<Predicate> disjuncts = Lists.newArrayListWithCapacity(order.length);
+        Predicate prefix = null;
+        for (int i = 0; i < order.length; i++) {
+            Expression<?> target = order[i].getTarget();
+            boolean nullable = isNullable(target);
+            Predicate comparison;
+            Predicate equality;
+            if (key[i] == null) {
+                // nothing follows null values, unless they are sorted first
+                comparison = isNullsFirst(order[i]) ? ExpressionUtils.isNotNull(target) : null;
+                equality = ExpressionUtils.isNull(target);
+            } else {
+                Expression<Object> value = ConstantImpl.create(key[i]);
+                comparison = PredicateOperation.create(order[i].isAscending() ? Ops.GT : Ops.LT, target, value);
+                if (nullable && !isNullsFirst(order[i])) {
+                    comparison = ExpressionUtils.or(comparison, ExpressionUtils.isNull(target));
+                }
+                equality = PredicateOperation.create(Ops.EQ, target, value);
+            }
+            if (comparison != null) {
+                disjuncts.add(prefix != null ? ExpressionUtils.and(prefix, comparison) : comparison);
+            }
+            prefix = prefix != null ? ExpressionUtils.and(prefix, equality) : equality;
+        }
+        return disjuncts.isEmpty() ? ExpressionUtils.isNull(getIdentifierPath()) : ExpressionUtils.anyOf(disjuncts);
+    }
+
+    /**
+     * Get whether null values of the given order specifier are sorted before other values. Without
+     * explicit null handling, the null ordering of the database is detected for each direction
+     * from the first row of the target. While the target has no null values, the null ordering
+     * doesn't matter and is detected again on the next call.
+     *
+     * @param order
+     * @return
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private boolean isNullsFirst(OrderSpecifier<?> order) {
+        if (order.getNullHandling() == OrderSpecifier.NullHandling.NullsFirst) {
+            return true;
+        } else if (order.getNullHandling() == OrderSpecifier.NullHandling.NullsLast) {
+            return false;
+        }
+        Boolean nullsFirst = order.isAscending() ? nullsFirstAscending : nullsFirstDescending;
+        if (nullsFirst == null) {
+            Expression<?> target = order.getTarget();
+            List<?> first = createQuery()
+                    .orderBy(new OrderSpecifier(order.getOrder(), target))
+                    .limit(1).list(target);
+            if (!first.isEmpty() && first.get(0) == null) {
+                nullsFirst = Boolean.TRUE;
+            } else if (!first.isEmpty() && createQuery(ExpressionUtils.isNull(target)).exists()) {
+                nullsFirst = Boolean.FALSE;
+            } else {
+                return true;
+            }
+            if (order.isAscending()) {
+                nullsFirstAscending = nullsFirst;
+            } else {
+                nullsFirstDescending = nullsFirst;
+            }
+        }
+        return nullsFirst;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("The entity provider is read-only");
+        }
+    }
+
+    public T addEntity(T entity) {
+        checkWritable();
+        T added = super.addEntity(entity);
+        invalidate();
+        return added;
+    }
+
+    public void removeEntity(Object entityId) {
+        checkWritable();
+        super.removeEntity(entityId);
+        invalidate();
+    }
+
+    public T updateEntity(T entity) {
+        checkWritable();
+        if (projection != null) {
+            Object entityId = getEntityManager().getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(entity);
+            if (!materialized.contains(entityId)) {
+                throw new IllegalStateException("Projected entities are read-only, " +
+                        "use QuerydslJPAContainer.getEditableItem to edit " + entityId);
+            }
+        }
+        T updated = super.updateEntity(entity);
+        invalidate();
+        return updated;
+    }
+
+    public void updateEntityProperty(Object entityId, String propertyName, Object propertyValue)
+            throws IllegalArgumentException {
+        checkWritable();
+        super.updateEntityProperty(entityId, propertyName, propertyValue);
+        invalidate();
+    }
+
+}
@@ -15,13 +15,30 @@
  */
 package com.vaadin.addon.jpacontainer;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import javax.annotation.Nullable;
+import javax.persistence.EntityManager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.mysema.commons.lang.CloseableIterator;
+import com.mysema.query.Tuple;
+import com.mysema.query.jpa.impl.JPAQuery;
+import com.mysema.query.types.Expression;
 import com.mysema.query.types.Order;
 import com.mysema.query.types.OrderSpecifier;
 import com.mysema.query.types.Path;
 import com.mysema.query.types.Predicate;
+import com.mysema.query.types.path.PathBuilder;
+import com.vaadin.addon.jpacontainer.provider.LocalEntityProvider;
+import com.vaadin.data.Container;
 
 /**
  * XXX Prototype of Vaadin/Querydsl integration, don't use in production code
@@ -36,47 +53,401 @@ public class QuerydslJPAContainer<T> extends JPAContainer<T> {
     
     private final Map<Predicate, Filter> filters = Maps.newHashMap();
     
+    private final Map<Filter, Predicate> predicates = Maps.newHashMap();
+    
+    @Nullable
+    private OrderSpecifier<?>[] order;
+    
+    private VaadinExpressionVisitor expressionVisitor = VaadinExpressionVisitor.DEFAULT;
+    
+    @Nullable
+    private transient FilterTranslationCache translationCache;
+    
+    private boolean normalizePredicates = true;
+    
+    // items handed out while entities are evicted, to keep the entities of modified items managed
+    @Nullable
+    private transient Map<Object, EntityItem<T>> items;
+    
     public QuerydslJPAContainer(Class<T> type) {
         super(type);
     }
     
     public void addContainerFilter(Predicate predicate) {
-        Filter filter = (Filter) predicate.accept(VaadinExpressionVisitor.DEFAULT, null);
+        Predicate normalized = normalizePredicates ? PredicateNormalizer.normalize(predicate) : predicate;
+        Filter filter;
+        if (getEntityProvider() instanceof QuerydslEntityProvider) {
+            filter = new PredicateFilter(((QuerydslEntityProvider<T>) getEntityProvider()).transform(normalized));
+        } else if (translationCache != null) {
+            filter = translationCache.translate(normalized, expressionVisitor);
+        } else {
+            filter = (Filter) normalized.accept(expressionVisitor, null);
+        }
         filters.put(predicate, filter);
+        predicates.put(filter, predicate);
         super.addContainerFilter(filter);
     }
 
     public void addNestedContainerProperty(Path<?> nestedProperty) {
-        super.addNestedContainerProperty(nestedProperty.getMetadata().getName());
+        super.addNestedContainerProperty(PathResolver.getPropertyId(nestedProperty));
+    }
+
+    public EntityItem<T> getItem(Object itemId) {
+        EntityItem<T> item = super.getItem(itemId);
+        if (item != null && getEntityProvider() instanceof QuerydslEntityProvider
+                && ((QuerydslEntityProvider<T>) getEntityProvider()).getEvictionWindow() > 0) {
+            if (items == null) {
+                items = new MapMaker().weakValues().makeMap();
+            }
+            items.put(itemId, item);
+        }
+        return item;
+    }
+    
+    /**
+     * Get the identifiers of the handed out items with uncommitted changes
+     * 
+     * @return
+     */
+    Set<Object> getModifiedItemIds() {
+        if (items == null) {
+            return Collections.emptySet();
+        }
+        Set<Object> modified = Sets.newHashSet();
+        for (Map.Entry<Object, EntityItem<T>> entry : items.entrySet()) {
+            if (entry.getValue().isModified() || entry.getValue().isDirty()) {
+                modified.add(entry.getKey());
+            }
+        }
+        return modified;
+    }
+
+    /**
+     * Get the item of the given entity for editing. In projection mode the entity is loaded fully.
+     * 
+     * @param itemId
+     * @return
+     */
+    public EntityItem<T> getEditableItem(Object itemId) {
+        if (getEntityProvider() instanceof QuerydslEntityProvider) {
+            ((QuerydslEntityProvider<T>) getEntityProvider()).materialize(itemId);
+        }
+        return getItem(itemId);
+    }
+
+    /**
+     * Stream the entities matching the applied filters in the current order via a forward-only
+     * cursor. The returned iterator needs to be closed.
+     * 
+     * @return
+     */
+    public CloseableIterator<T> stream() {
+        return getNativeEntityProvider("Streams").iterate(this, getAppliedFilters(), getSortByList());
+    }
+
+    /**
+     * Stream the values of the given value properties of the entities matching the applied
+     * filters in the current order, without loading entities. The returned iterator needs to be
+     * closed.
+     * 
+     * @param paths
+     * @return
+     */
+    public CloseableIterator<Tuple> stream(Path<?>... paths) {
+        return streamColumns(PathResolver.getPropertyIds(paths));
+    }
+
+    CloseableIterator<Tuple> streamColumns(String... propertyIds) {
+        return getNativeEntityProvider("Streams").iterateColumns(this, getAppliedFilters(), getSortByList(),
+                propertyIds);
+    }
+
+    /**
+     * Pass the entities matching the applied filters in the current order to the given callback
+     * 
+     * @param callback
+     */
+    public void forEach(EntityCallback<? super T> callback) {
+        CloseableIterator<T> entities = stream();
+        try {
+            while (entities.hasNext()) {
+                callback.handle(entities.next());
+            }
+        } finally {
+            entities.close();
+        }
+    }
+
+    /**
+     * Evaluate the given aggregate expression, e.g. {@code person.primitiveDouble.sum()}, for the
+     * entities matching the applied filters in the database
+     * 
+     * @param aggregate
+     * @return
+     */
+    @Nullable
+    public <A> A aggregate(Expression<A> aggregate) {
+        return aggregate(new Expression<?>[]{aggregate}).get(aggregate);
+    }
+
+    /**
+     * Evaluate the given aggregate expressions for the entities matching the applied filters in
+     * one query. In containers created via {@link QuerydslJPAContainerFactory#makeNative} the
+     * results are cached until the filters or the data change, other containers query each time.
+     * 
+     * @param aggregates
+     * @return
+     * @throws UnsupportedOperationException if an applied filter can't be translated into a predicate
+     */
+    public Tuple aggregate(Expression<?>... aggregates) {
+        return aggregate(Collections.<Expression<?>>emptyList(), aggregates).get(0);
+    }
+
+    /**
+     * Evaluate the given aggregate expressions per value of the given group by expression for the
+     * entities matching the applied filters in one query. The results are cached until the filters
+     * or the data change, like in {@link #aggregate(Expression...)}. Associations on the group by
+     * path are inner joined, e.g. grouping by {@code person.manager.lastName} skips persons
+     * without a manager.
+     * 
+     * @param groupBy
+     * @param aggregates
+     * @return rows of the group by and aggregate values ordered by the group by value
+     * @throws UnsupportedOperationException if an applied filter can't be translated into a predicate
+     */
+    public List<Tuple> groupBy(Expression<?> groupBy, Expression<?>... aggregates) {
+        return aggregate(Collections.<Expression<?>>singletonList(groupBy), aggregates);
+    }
+
+    private List<Tuple> aggregate(List<? extends Expression<?>> groupBy, Expression<?>[] aggregates) {
+        if (getEntityProvider() instanceof QuerydslEntityProvider) {
+            return ((QuerydslEntityProvider<T>) getEntityProvider()).aggregate(this, getAppliedFilters(),
+                    groupBy, aggregates);
+        } else if (getEntityProvider() instanceof LocalEntityProvider) {
+            PathBuilder<T> entity = new PathBuilder<T>(getEntityClass(),
+                    QuerydslEntityProvider.defaultVariable(getEntityClass()));
+            List<Predicate> where = Lists.newArrayList();
+            for (Filter filter : getAppliedFilters()) {
+                Predicate predicate = predicates.get(filter);
+                if (predicate == null) {
+                    predicate = FilterTranslator.translate(entity, filter);
+                }
+                if (predicate == null) {
+                    throw new UnsupportedOperationException("The filter " + filter + " can't be aggregated");
+                }
+                where.add(predicate);
+            }
+            EntityManager entityManager = ((LocalEntityProvider<T>) getEntityProvider()).getEntityManager();
+            return QuerydslEntityProvider.aggregate(new JPAQuery(entityManager).from(entity)
+                    .where(where.toArray(new Predicate[where.size()])), groupBy, aggregates);
+        } else {
+            throw new IllegalStateException("Aggregates are only supported by containers with a local entity provider");
+        }
+    }
+
+    public VaadinExpressionVisitor getExpressionVisitor() {
+        return expressionVisitor;
+    }
+    
+    /**
+     * Set the visitor used to translate predicates into Vaadin filters
+     * 
+     * @param expressionVisitor
+     */
+    public void setExpressionVisitor(VaadinExpressionVisitor expressionVisitor) {
+        this.expressionVisitor = expressionVisitor;
+    }
+
+    @Nullable
+    public FilterTranslationCache getTranslationCache() {
+        return translationCache;
+    }
+    
+    /**
+     * Set the cache for predicate translations, e.g. the JVM wide {@link FilterTranslationCache#DEFAULT}
+     * 
+     * @param translationCache
+     */
+    public void setTranslationCache(@Nullable FilterTranslationCache translationCache) {
+        this.translationCache = translationCache;
+    }
+
+    public boolean isNormalizePredicates() {
+        return normalizePredicates;
+    }
+    
+    /**
+     * Set whether added predicates are normalized via {@link PredicateNormalizer} before they
+     * are translated, defaults to true
+     * 
+     * @param normalizePredicates
+     */
+    public void setNormalizePredicates(boolean normalizePredicates) {
+        this.normalizePredicates = normalizePredicates;
+    }
+
+    public void refresh() {
+        if (getEntityProvider() instanceof QuerydslEntityProvider) {
+            ((QuerydslEntityProvider<T>) getEntityProvider()).invalidate();
+        }
+        super.refresh();
+    }
+
+    public void setReadOnly(boolean readOnly) throws UnsupportedOperationException {
+        if (!readOnly && getEntityProvider() instanceof QuerydslEntityProvider
+                && ((QuerydslEntityProvider<T>) getEntityProvider()).isReadOnly()) {
+            throw new UnsupportedOperationException("The entity provider is read-only");
+        }
+        super.setReadOnly(readOnly);
+    }
+
+    public void applyFilters() {
+        cancelPrefetches();
+        super.applyFilters();
+    }
+
+    public boolean hasChildren(Object itemId) {
+        if (getParentProperty() != null && getEntityProvider() instanceof QuerydslEntityProvider) {
+            Boolean hasChildren = ((QuerydslEntityProvider<T>) getEntityProvider()).hasChildren(
+                    this, getAppliedFilters(), getSortByList(), itemId);
+            if (hasChildren != null) {
+                return hasChildren;
+            }
+        }
+        return super.hasChildren(itemId);
+    }
+
+    public void removeAllContainerFilters() {
+        filters.clear();
+        predicates.clear();
+        super.removeAllContainerFilters();
     }
 
     public void removeContainerFilter(Predicate predicate) {
         Filter filter = filters.remove(predicate);
         if (filter != null) {
+            if (predicate.equals(predicates.get(filter))) {
+                predicates.remove(filter);
+            }
             super.removeContainerFilter(filter);
         }
     }
     
-    public void setAdditionalFilterablePropertyIds(Path<?>... paths) {
-        String[] propertyIds = new String[paths.length];
-        for (int i = 0; i < propertyIds.length; i++) {
-            propertyIds[i] = paths[i].getMetadata().getName();
+    /**
+     * Replace the current predicate filters with the given predicates. Only the differences
+     * are applied and the filters are applied at most once.
+     * 
+     * @param predicates
+     */
+    public void setContainerFilters(Collection<? extends Predicate> predicates) {
+        Set<Predicate> removed = Sets.newHashSet(filters.keySet());
+        removed.removeAll(predicates);
+        replaceContainerFilters(removed, predicates);
+    }
+    
+    /**
+     * Remove and add the given predicate filters and apply the filters at most once
+     * 
+     * @param removed
+     * @param added
+     */
+    public void replaceContainerFilters(Collection<? extends Predicate> removed, 
+            Collection<? extends Predicate> added) {
+        boolean applyFiltersImmediately = isApplyFiltersImmediately();
+        boolean changed = false;
+        setApplyFiltersImmediately(false);
+        try {
+            for (Predicate predicate : removed) {
+                if (filters.containsKey(predicate)) {
+                    removeContainerFilter(predicate);
+                    changed = true;
+                }
+            }
+            for (Predicate predicate : added) {
+                if (!filters.containsKey(predicate)) {
+                    addContainerFilter(predicate);
+                    changed = true;
+                }
+            }
+        } finally {
+            setApplyFiltersImmediately(applyFiltersImmediately);
+        }
+        if (changed && applyFiltersImmediately) {
+            applyFilters();
         }
-        super.setAdditionalFilterablePropertyIds(propertyIds);
+    }
+    
+    public void setAdditionalFilterablePropertyIds(Path<?>... paths) {
+        super.setAdditionalFilterablePropertyIds(PathResolver.getPropertyIds(paths));
+    }
+
+    /**
+     * Load only the given properties of the entities into the items, or full entities, if no 
+     * properties are given. Use {@link #getEditableItem(Object)} to get items for editing.
+     * 
+     * @param paths
+     */
+    public void setProjection(Path<?>... paths) {
+        getNativeEntityProvider("Projections").setProjection(PathResolver.getPropertyIds(paths));
+        refresh();
     }
 
     public void setSortProperty(Path<?> propertyId, Path<?>  sortProperty) {
-        super.setSortProperty(propertyId.getMetadata().getName(), sortProperty.getMetadata().getName());
+        super.setSortProperty(PathResolver.getPropertyId(propertyId), PathResolver.getPropertyId(sortProperty));
+    }
+    
+    public void sort(Object[] propertyId, boolean[] ascending) {
+        sort(propertyId, ascending, null);
     }
     
     public void sort(OrderSpecifier<?>... order) {
         Object[] propertyId = new Object[order.length];
         boolean[] ascending = new boolean[order.length];
         for (int i = 0; i < order.length; i++) {
-            propertyId[i] = ((Path)order[i].getTarget()).getMetadata().getName();
+            propertyId[i] = PathResolver.getPropertyId((Path<?>)order[i].getTarget());
             ascending[i] = order[i].getOrder() == Order.ASC;
         }
+        sort(propertyId, ascending, order);
+    }
+    
+    private void sort(Object[] propertyId, boolean[] ascending, @Nullable OrderSpecifier<?>[] order) {
+        this.order = order;
+        cancelPrefetches();
         super.sort(propertyId, ascending);
     }
+
+    private void cancelPrefetches() {
+        if (getEntityProvider() instanceof QuerydslEntityProvider) {
+            ((QuerydslEntityProvider<T>) getEntityProvider()).cancelPrefetches();
+        }
+    }
+    
+    private QuerydslEntityProvider<T> getNativeEntityProvider(String feature) {
+        if (getEntityProvider() instanceof QuerydslEntityProvider) {
+            return (QuerydslEntityProvider<T>) getEntityProvider();
+        } else {
+            throw new IllegalStateException(feature + " are only supported by containers created " +
+                    "via QuerydslJPAContainerFactory.makeNative");
+        }
+    }
+    
+    @Nullable
+    Predicate getPredicate(Filter filter) {
+        return predicates.get(filter);
+    }
+    
+    @Nullable
+    OrderSpecifier<?>[] getOrderSpecifiers() {
+        return order;
+    }
+    
+    void fireItemSetChange() {
+        fireContainerItemSetChangeEvent(new ItemSetChangeEvent() {
+            private static final long serialVersionUID = 1L;
+            public Container getContainer() {
+                return QuerydslJPAContainer.this;
+            }
+        });
+    }
     
 }
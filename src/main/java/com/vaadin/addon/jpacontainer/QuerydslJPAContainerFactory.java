@@ -40,10 +40,66 @@ public final class QuerydslJPAContainerFactory {
     }
 
     public static <T> QuerydslJPAContainer<T> make(Class<T> type, String persistenceUnitName) {
-        EntityManager entityManager = JPAContainerFactory.createEntityManagerForPersistenceUnit(persistenceUnitName);
+        EntityManager entityManager = createEntityManager(persistenceUnitName);
         return make(type, entityManager);
     }
     
+    /**
+     * Create a container which executes its Querydsl predicates directly via a
+     * {@link QuerydslEntityProvider}
+     * 
+     * @param type
+     * @param entityManager
+     * @return
+     */
+    public static <T> QuerydslJPAContainer<T> makeNative(Class<T> type, EntityManager entityManager) {
+        EntityProvider<T> entityProvider = new QuerydslEntityProvider<T>(type, entityManager);
+        return makeWithEntityProvider(type, entityProvider);
+    }
+    
+    public static <T> QuerydslJPAContainer<T> makeNative(Class<T> type, String persistenceUnitName) {
+        EntityManager entityManager = createEntityManager(persistenceUnitName);
+        return makeNative(type, entityManager);
+    }
+    
+    /**
+     * Create a read-only container which loads its entities via a {@link QuerydslEntityProvider}
+     * in read-only mode
+     * 
+     * @param type
+     * @param entityManager
+     * @return
+     */
+    public static <T> QuerydslJPAContainer<T> makeReadOnly(Class<T> type, EntityManager entityManager) {
+        QuerydslEntityProvider<T> entityProvider = new QuerydslEntityProvider<T>(type, entityManager);
+        entityProvider.setReadOnly(true);
+        QuerydslJPAContainer<T> container = makeWithEntityProvider(type, entityProvider);
+        // the entities can be shared cache instances, which must not be edited via item properties
+        container.setReadOnly(true);
+        return container;
+    }
+    
+    public static <T> QuerydslJPAContainer<T> makeReadOnly(Class<T> type, String persistenceUnitName) {
+        EntityManager entityManager = createEntityManager(persistenceUnitName);
+        return makeReadOnly(type, entityManager);
+    }
+    
+    /**
+     * Create an entity manager via the default {@link PersistenceUnitRegistry}, if the bootstrap
+     * of the persistence unit has been started there, and via {@link JPAContainerFactory} otherwise
+     * 
+     * @param persistenceUnitName
+     * @return
+     */
+    private static EntityManager createEntityManager(String persistenceUnitName) {
+        if (PersistenceUnitRegistry.DEFAULT.contains(persistenceUnitName)) {
+            // waits for a running warm-up instead of racing it
+            return PersistenceUnitRegistry.DEFAULT.createEntityManager(persistenceUnitName);
+        } else {
+            return JPAContainerFactory.createEntityManagerForPersistenceUnit(persistenceUnitName);
+        }
+    }
+    
     private QuerydslJPAContainerFactory() {}
     
 }
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import javax.persistence.EntityManager;
+
+import com.mysema.commons.lang.CloseableIterator;
+
+/**
+ * StreamIterator iterates over the results of a query executed via its own entity manager,
+ * clears the persistence context every given amount of rows and closes the entity manager when
+ * it is closed.
+ *
+ * @author tiwe
+ *
+ * @param <T>
+ */
+final class StreamIterator<T> implements CloseableIterator<T> {
+
+    private final CloseableIterator<T> results;
+
+    private final EntityManager entityManager;
+
+    private final int clearInterval;
+
+    private long rows;
+
+    StreamIterator(CloseableIterator<T> results, EntityManager entityManager, int clearInterval) {
+        this.results = results;
+        this.entityManager = entityManager;
+        this.clearInterval = clearInterval;
+    }
+
+    public boolean hasNext() {
+        return results.hasNext();
+    }
+
+    public T next() {
+        if (clearInterval > 0 && rows > 0 && rows % clearInterval == 0) {
+            // the previously returned entities have been handled
+            entityManager.clear();
+        }
+        rows++;
+        return results.next();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+        try {
+            results.close();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+}
@@ -15,6 +15,11 @@
  */
 package com.vaadin.addon.jpacontainer;
 
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 import javax.annotation.Nullable;
 
 import com.mysema.query.types.Constant;
@@ -24,8 +29,6 @@ import com.mysema.query.types.Operator;
 import com.mysema.query.types.Ops;
 import com.mysema.query.types.ParamExpression;
 import com.mysema.query.types.Path;
-import com.mysema.query.types.PathMetadata;
-import com.mysema.query.types.PathType;
 import com.mysema.query.types.SubQueryExpression;
 import com.mysema.query.types.TemplateExpression;
 import com.mysema.query.types.Visitor;
@@ -49,11 +52,144 @@ import com.vaadin.data.util.filter.SimpleStringFilter;
  * @author tiwe
  *
  */
-public final class VaadinExpressionVisitor implements Visitor<Object, Void> {
+public final class VaadinExpressionVisitor implements Visitor<Object, Void>, Serializable {
+    
+    private static final long serialVersionUID = -1722427263007416707L;
+
+    /**
+     * Maximum size of IN and NOT IN collections, which are translated into one Equal filter per value
+     */
+    public static final int MAX_IN_SIZE = 1000;
+
+    private static final Map<Operator<?>, OperationTranslator> DEFAULT_TRANSLATORS = 
+            new IdentityHashMap<Operator<?>, OperationTranslator>();
+    
+    static {
+        DEFAULT_TRANSLATORS.put(Ops.OR, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new Or((Filter)visitor.handle(expr, 0), (Filter)visitor.handle(expr, 1));
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.AND, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new And((Filter)visitor.handle(expr, 0), (Filter)visitor.handle(expr, 1));
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.NOT, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new Not((Filter)visitor.handle(expr, 0));
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.LIKE, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new Like((String)visitor.handle(expr, 0), (String)visitor.handle(expr, 1));
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.EQ, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new Equal(visitor.handle(expr, 0), visitor.handle(expr, 1));
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.NE, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new Not(new Equal(visitor.handle(expr, 0), visitor.handle(expr, 1)));
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.IS_NULL, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new IsNull(visitor.handle(expr, 0));
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.STARTS_WITH, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new SimpleStringFilter(visitor.handle(expr, 0), (String)visitor.handle(expr, 1), false, true);
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.STARTS_WITH_IC, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new SimpleStringFilter(visitor.handle(expr, 0), (String)visitor.handle(expr, 1), true, true);
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.STRING_CONTAINS, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new SimpleStringFilter(visitor.handle(expr, 0), (String)visitor.handle(expr, 1), false, false);
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.STRING_CONTAINS_IC, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new SimpleStringFilter(visitor.handle(expr, 0), (String)visitor.handle(expr, 1), true, false);
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.BETWEEN, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new Between((Object)visitor.handle(expr, 0), (Comparable)visitor.handle(expr, 1), (Comparable)visitor.handle(expr, 2));
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.LT, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new Less(visitor.handle(expr, 0), visitor.handle(expr, 1));
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.GT, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new Greater(visitor.handle(expr, 0), visitor.handle(expr, 1));
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.LOE, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new LessOrEqual(visitor.handle(expr, 0), visitor.handle(expr, 1));
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.GOE, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new GreaterOrEqual(visitor.handle(expr, 0), visitor.handle(expr, 1));
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.IN, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return in(visitor.handle(expr, 0), (Collection<?>)visitor.handle(expr, 1));
+            }
+        });
+        DEFAULT_TRANSLATORS.put(Ops.NOT_IN, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new Not(in(visitor.handle(expr, 0), (Collection<?>)visitor.handle(expr, 1)));
+            }
+        });
+        // not supported : EQ_IGNORE_CASE, ENDS_WITH, ENDS_WITH_IC
+    }
+    
+    private static Filter in(Object propertyId, Collection<?> values) {
+        if (values.size() > MAX_IN_SIZE) {
+            throw new UnsupportedOperationException("IN and NOT IN collections of more than " + MAX_IN_SIZE
+                    + " values are only supported by containers created via QuerydslJPAContainerFactory.makeNative");
+        }
+        Filter[] filters = new Filter[values.size()];
+        int i = 0;
+        for (Object value : values) {
+            filters[i++] = new Equal(propertyId, value);
+        }
+        return new Or(filters);
+    }
+    
+    public static final VaadinExpressionVisitor DEFAULT = new VaadinExpressionVisitor(DEFAULT_TRANSLATORS);
     
-    public static final VaadinExpressionVisitor DEFAULT = new VaadinExpressionVisitor();
+    /**
+     * Get a modifiable copy of the default translators, which can be used to register
+     * translators for additional operators
+     * 
+     * @return
+     */
+    public static Map<Operator<?>, OperationTranslator> getDefaultTranslators() {
+        return new IdentityHashMap<Operator<?>, OperationTranslator>(DEFAULT_TRANSLATORS);
+    }
     
-    private Object handle(Operation<?> expr, int i) {
+    private final Map<Operator<?>, OperationTranslator> translators;
+    
+    public VaadinExpressionVisitor(Map<Operator<?>, OperationTranslator> translators) {
+        this.translators = new IdentityHashMap<Operator<?>, OperationTranslator>(translators);
+    }
+    
+    public Object handle(Operation<?> expr, int i) {
         return expr.getArg(i).accept(this, null);
     }
 
@@ -66,50 +202,10 @@ public final class VaadinExpressionVisitor implements Visitor<Object, Void> {
     }
 
     public Object visit(Operation<?> expr, @Nullable Void context) {
-        Operator<?> op = expr.getOperator();
-        if (op == Ops.OR) {
-            return new Or((Filter)handle(expr, 0), (Filter)handle(expr, 1));
-        } else if (op == Ops.AND) {
-            return new And((Filter)handle(expr, 0), (Filter)handle(expr, 1));
-        } else if (op == Ops.NOT) {
-            return new Not((Filter)handle(expr, 0));
-        } else if (op == Ops.LIKE) {
-            return new Like((String)handle(expr, 0), (String)handle(expr, 1));
-        } else if (op == Ops.EQ) {
-            return new Equal(handle(expr, 0), handle(expr, 1));
-        } else if (op == Ops.EQ_IGNORE_CASE) {
-            // not supported
-        } else if (op == Ops.NE) {
-            return new Not(new Equal(handle(expr, 0), handle(expr, 1)));
-        } else if (op == Ops.IS_NULL) {    
-            return new IsNull(handle(expr, 0));
-        } else if (op == Ops.STARTS_WITH) {
-            return new SimpleStringFilter(handle(expr, 0), (String)handle(expr, 1), false, true);
-        } else if (op == Ops.STARTS_WITH_IC) {
-            return new SimpleStringFilter(handle(expr, 0), (String)handle(expr, 1), true, true);
-        } else if (op == Ops.ENDS_WITH) {
-            // not supported            
-        } else if (op == Ops.ENDS_WITH_IC) {
-            // not supported
-        } else if (op == Ops.STRING_CONTAINS) {
-            return new SimpleStringFilter(handle(expr, 0), (String)handle(expr, 1), false, false);
-        } else if (op == Ops.STRING_CONTAINS_IC) {
-            return new SimpleStringFilter(handle(expr, 0), (String)handle(expr, 1), true, false);
-        } else if (op == Ops.BETWEEN) {
-            return new Between((Object)handle(expr, 0), (Comparable)handle(expr, 1), (Comparable)handle(expr, 2));
-        } else if (op == Ops.IN) {
-            // not supported            
-        } else if (op == Ops.NOT_IN) {
-            // not supported
-        } else if (op == Ops.LT) {
-            return new Less(handle(expr, 0), handle(expr, 1));
-        } else if (op == Ops.GT) {
-            return new Greater(handle(expr, 0), handle(expr, 1));
-        } else if (op == Ops.LOE) {
-            return new LessOrEqual(handle(expr, 0), handle(expr, 1));
-        } else if (op == Ops.GOE) {
-            return new GreaterOrEqual(handle(expr, 0), handle(expr, 1));
-        } 
+        OperationTranslator translator = translators.get(expr.getOperator());
+        if (translator != null) {
+            return translator.translate(expr, this);
+        }
         throw new UnsupportedOperationException("Illegal operation " + expr);                
     }
 
@@ -118,14 +214,7 @@ public final class VaadinExpressionVisitor implements Visitor<Object, Void> {
     }
 
     public Object visit(Path<?> expr, @Nullable Void context) {
-        PathMetadata<?> metadata = expr.getMetadata();
-        if (metadata.getPathType() == PathType.PROPERTY) {
-            Object parent = visit(metadata.getParent(), context);
-            String name = metadata.getName();
-            return parent != null ? parent + "." + name : name;
-        } else {
-            return null;
-        }
+        return PathResolver.getPropertyId(expr);
     }
 
     public Object visit(SubQueryExpression<?> expr, @Nullable Void context) {
@@ -136,6 +225,4 @@ public final class VaadinExpressionVisitor implements Visitor<Object, Void> {
         throw new UnsupportedOperationException();
     }
     
-    private VaadinExpressionVisitor() {}
-
 }
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.mysema.commons.lang.CloseableIterator;
+import com.mysema.commons.lang.IteratorAdapter;
+import com.mysema.query.Tuple;
+import com.mysema.query.types.QTuple;
+import com.vaadin.addon.jpacontainer.testdata.Person;
+import com.vaadin.addon.jpacontainer.testdata.QPerson;
+
+public class DelimitedExporterTest {
+
+    private final QPerson person = QPerson.person;
+
+    private final QTuple tuple = new QTuple(person.firstName, person.lastName, person.primitiveDouble);
+
+    private QuerydslJPAContainer<Person> container(final Tuple... rows) {
+        return new QuerydslJPAContainer<Person>(Person.class) {
+            private static final long serialVersionUID = 1L;
+            CloseableIterator<Tuple> streamColumns(String... propertyIds) {
+                assertEquals(Arrays.asList("firstName", "lastName", "primitiveDouble"), Arrays.asList(propertyIds));
+                Iterator<Tuple> iterator = Arrays.asList(rows).iterator();
+                return new IteratorAdapter<Tuple>(iterator);
+            }
+        };
+    }
+
+    private String export(DelimitedExporter exporter, Tuple... rows) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long count = exporter.export(container(rows), out, person.firstName, person.lastName, person.primitiveDouble);
+        assertEquals(rows.length, count);
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testCsv() throws IOException {
+        String csv = export(DelimitedExporter.CSV,
+                tuple.newInstance("John", "Smith", 0.5),
+                tuple.newInstance("Mary, Jr.", "O\"Neil", 1.0),
+                tuple.newInstance("Multi\nLine", null, 2.0));
+        List<String> expected = Arrays.asList(
+                "firstName,lastName,primitiveDouble",
+                "John,Smith,0.5",
+                "\"Mary, Jr.\",\"O\"\"Neil\",1.0",
+                "\"Multi\nLine\",,2.0",
+                "");
+        assertEquals(expected, Arrays.asList(csv.split("\r\n", -1)));
+    }
+
+    @Test
+    public void testTsv() throws IOException {
+        String tsv = export(DelimitedExporter.TSV,
+                tuple.newInstance("John", "Smith", 0.5),
+                tuple.newInstance("Tab\there", "Back\\slash", 1.0),
+                tuple.newInstance("Multi\r\nLine", "Ångström", 2.0));
+        assertEquals("firstName\tlastName\tprimitiveDouble\n"
+                + "John\tSmith\t0.5\n"
+                + "Tab\\there\tBack\\\\slash\t1.0\n"
+                + "Multi\\r\\nLine\tÅngström\t2.0\n", tsv);
+    }
+
+}
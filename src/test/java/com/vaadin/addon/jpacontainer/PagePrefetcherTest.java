@@ -0,0 +1,109 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.mysema.query.types.OrderSpecifier;
+import com.mysema.query.types.Predicate;
+
+public class PagePrefetcherTest {
+
+    private final PagePrefetcher<String> prefetcher = new PagePrefetcher<String>();
+
+    private final KeysetIndex index = new KeysetIndex(new Predicate[0], new OrderSpecifier<?>[0], 4);
+
+    private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+    private final Executor executor = new Executor() {
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    };
+
+    private static Callable<String> load(final String page) {
+        return new Callable<String>() {
+            public String call() {
+                return page;
+            }
+        };
+    }
+
+    @Test
+    public void testAccess() {
+        assertArrayEquals(new int[]{1}, prefetcher.access(index, 0));
+        assertArrayEquals(new int[]{2, 0}, prefetcher.access(index, 1));
+        assertArrayEquals(new int[0], prefetcher.access(index, 1));
+        assertArrayEquals(new int[]{4, 2}, prefetcher.access(index, 3));
+        // scrolling back
+        assertArrayEquals(new int[]{1, 3}, prefetcher.access(index, 2));
+        assertArrayEquals(new int[]{0, 2}, prefetcher.access(index, 1));
+        assertArrayEquals(new int[]{1}, prefetcher.access(index, 0));
+    }
+
+    @Test
+    public void testTake() {
+        prefetcher.access(index, 0);
+        prefetcher.submit(1, load("1"), executor);
+        prefetcher.submit(1, load("1"), executor);
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertEquals("1", prefetcher.take(index, 1));
+        assertNull(prefetcher.take(index, 1));
+    }
+
+    @Test
+    public void testTake_NotStarted() {
+        prefetcher.access(index, 0);
+        prefetcher.submit(1, load("1"), executor);
+        assertEquals("1", prefetcher.take(index, 1));
+    }
+
+    @Test
+    public void testTake_OtherIndex() {
+        prefetcher.access(index, 0);
+        prefetcher.submit(1, load("1"), executor);
+        assertNull(prefetcher.take(new KeysetIndex(new Predicate[0], new OrderSpecifier<?>[0], 4), 1));
+    }
+
+    @Test
+    public void testCancel() {
+        prefetcher.access(index, 5);
+        prefetcher.submit(6, load("6"), executor);
+        prefetcher.submit(4, load("4"), executor);
+        // jump
+        prefetcher.access(index, 20);
+        assertTrue(((Future<?>) tasks.get(0)).isCancelled());
+        assertTrue(((Future<?>) tasks.get(1)).isCancelled());
+        assertNull(prefetcher.take(index, 6));
+
+        prefetcher.submit(21, load("21"), executor);
+        prefetcher.access(new KeysetIndex(new Predicate[0], new OrderSpecifier<?>[0], 4), 0);
+        assertTrue(((Future<?>) tasks.get(2)).isCancelled());
+    }
+
+}
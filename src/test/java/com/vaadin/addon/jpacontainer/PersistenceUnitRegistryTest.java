@@ -0,0 +1,81 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.vaadin.addon.jpacontainer.provider.CachingMutableLocalEntityProvider;
+import com.vaadin.addon.jpacontainer.testdata.Person;
+
+public class PersistenceUnitRegistryTest {
+
+    private final PersistenceUnitRegistry registry = new PersistenceUnitRegistry();
+
+    @Test
+    public void testWarmUp() throws InterruptedException {
+        assertFalse(registry.isReady("eclipselink-in-memory"));
+        assertFalse(registry.awaitReady("eclipselink-in-memory", 1, TimeUnit.MILLISECONDS));
+        registry.warmUp("eclipselink-in-memory");
+        assertTrue(registry.awaitReady("eclipselink-in-memory", 60, TimeUnit.SECONDS));
+        assertTrue(registry.isReady("eclipselink-in-memory"));
+    }
+
+    @Test
+    public void testWarmUp_Failure() {
+        registry.warmUp(MoreExecutors.sameThreadExecutor(), "unknown-persistence-unit");
+        assertFalse(registry.isReady("unknown-persistence-unit"));
+    }
+
+    @Test
+    public void testWarmUp_Cancelled() throws InterruptedException {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        registry.warmUp(new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        }, "eclipselink-in-memory");
+        assertTrue(registry.contains("eclipselink-in-memory"));
+        ((Future<?>) tasks.get(0)).cancel(false);
+        assertFalse(registry.awaitReady("eclipselink-in-memory", 1, TimeUnit.SECONDS));
+        assertFalse(registry.isReady("eclipselink-in-memory"));
+    }
+
+    @Test
+    public void testSharesEntityManagerFactoryWithJPAContainerFactory() {
+        registry.warmUp(MoreExecutors.sameThreadExecutor(), "eclipselink-in-memory");
+        assertTrue(registry.isReady("eclipselink-in-memory"));
+        EntityManager entityManager = registry.createEntityManager("eclipselink-in-memory");
+        JPAContainer<Person> container = JPAContainerFactory.make(Person.class, "eclipselink-in-memory");
+        assertEquals(entityManager.getEntityManagerFactory(),
+                ((CachingMutableLocalEntityProvider<?>) container.getEntityProvider())
+                        .getEntityManager().getEntityManagerFactory());
+        entityManager.close();
+    }
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import static com.vaadin.addon.jpacontainer.PredicateNormalizer.normalize;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.mysema.query.types.ConstantImpl;
+import com.mysema.query.types.ExpressionUtils;
+import com.mysema.query.types.Predicate;
+import com.vaadin.addon.jpacontainer.testdata.QPerson;
+
+public class PredicateNormalizerTest {
+
+    private final QPerson person = QPerson.person;
+
+    @Test
+    public void testFlattenAndRemoveDuplicates() {
+        Predicate a = person.firstName.eq("Hello");
+        Predicate b = person.lastName.eq("World");
+        Predicate c = person.primitiveDouble.gt(1.0);
+        assertEquals(normalize(ExpressionUtils.allOf(a, b, c)),
+                normalize(ExpressionUtils.and(ExpressionUtils.and(c, b), ExpressionUtils.and(a, b))));
+    }
+
+    @Test
+    public void testDoubleNegation() {
+        assertEquals(person.firstName.eq("Hello"), normalize(person.firstName.eq("Hello").not().not()));
+    }
+
+    @Test
+    public void testImpliedNotNull() {
+        assertEquals(person.lastName.eq("Smith"),
+                normalize(person.lastName.isNotNull().and(person.lastName.eq("Smith"))));
+        assertEquals(person.lastName.eq("Smith").and(person.firstName.isNotNull()),
+                normalize(person.firstName.isNotNull().and(person.lastName.eq("Smith"))));
+    }
+
+    @Test
+    public void testImpliedNotNull_Negated() {
+        assertEquals(person.lastName.eq("Smith").and(person.lastName.isNotNull()).not(),
+                normalize(person.lastName.isNotNull().and(person.lastName.eq("Smith")).not()));
+        assertEquals(person.lastName.eq("Smith"),
+                normalize(person.lastName.isNotNull().and(person.lastName.eq("Smith")).not().not()));
+    }
+
+    @Test
+    public void testConstants() {
+        Predicate constantTrue = ExpressionUtils.eq(ConstantImpl.create(1), ConstantImpl.create(1));
+        Predicate constantFalse = ExpressionUtils.eq(ConstantImpl.create(1), ConstantImpl.create(2));
+        assertEquals(person.firstName.eq("Hello"), normalize(person.firstName.eq("Hello").and(constantTrue)));
+        assertEquals(person.firstName.eq("Hello"), normalize(person.firstName.eq("Hello").or(constantFalse)));
+        assertEquals(constantTrue, normalize(constantTrue));
+    }
+
+    @Test
+    public void testSelectivityOrder() {
+        assertEquals(person.lastName.eq("Smith").and(person.primitiveDouble.gt(1.0)).and(person.firstName.ne("Hello")),
+                normalize(person.firstName.ne("Hello").and(person.primitiveDouble.gt(1.0)).and(person.lastName.eq("Smith"))));
+    }
+
+}
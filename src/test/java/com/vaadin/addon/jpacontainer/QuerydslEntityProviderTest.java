@@ -0,0 +1,827 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.eclipse.persistence.jpa.JpaEntityManager;
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.eclipse.persistence.sessions.SessionEventAdapter;
+import org.eclipse.persistence.sessions.SessionEventManager;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.mysema.commons.lang.CloseableIterator;
+import com.mysema.query.Tuple;
+import com.mysema.query.jpa.impl.JPAQuery;
+import com.mysema.query.types.path.PathBuilder;
+import com.vaadin.addon.jpacontainer.testdata.DataGenerator;
+import com.vaadin.addon.jpacontainer.testdata.Person;
+import com.vaadin.addon.jpacontainer.testdata.QPerson;
+import com.vaadin.data.Container.ItemSetChangeEvent;
+import com.vaadin.data.Container.ItemSetChangeListener;
+import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.Or;
+import com.vaadin.data.util.filter.SimpleStringFilter;
+
+public class QuerydslEntityProviderTest {
+
+    private static EntityManagerFactory emf = Persistence
+            .createEntityManagerFactory("eclipselink-in-memory");
+
+    private static EntityManager entityManager;
+
+    private final QPerson person = QPerson.person;
+
+    private QuerydslJPAContainer<Person> container;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        entityManager = emf.createEntityManager();
+        DataGenerator.persistTestData(entityManager);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        DataGenerator.removeTestData(entityManager);
+    }
+
+    @Before
+    public void setUp() {
+        container = QuerydslJPAContainerFactory.makeNative(Person.class, entityManager);
+    }
+
+    @Test
+    public void testFilterIsNotTranslated() {
+        container.addContainerFilter(person.lastName.startsWith("S"));
+        assertEquals(new PredicateFilter(person.lastName.startsWith("S")),
+                container.getAppliedFilters().iterator().next());
+    }
+
+    @Test
+    public void testSize() {
+        assertEquals(DataGenerator.getTestDataSortedByPrimaryKey().size(), container.size());
+    }
+
+    @Test
+    public void testSize_Filtered() {
+        container.addContainerFilter(person.lastName.startsWith("S"));
+        assertEquals(DataGenerator.getFilteredTestDataSortedByPrimaryKey().size(), container.size());
+
+        container.removeContainerFilter(person.lastName.startsWith("S"));
+        assertEquals(DataGenerator.getTestDataSortedByPrimaryKey().size(), container.size());
+    }
+
+    @Test
+    public void testSize_UnsupportedByVisitor() {
+        container.addContainerFilter(person.lastName.endsWith("mith"));
+        assertEquals(50, container.size());
+    }
+
+    @Test
+    public void testMixedFilters() {
+        List<Long> ids = new JPAQuery(entityManager).from(person)
+                .where(person.lastName.eq("Smith"), person.primitiveDouble.lt(0.5)
+                        .or(person.firstName.startsWith("A")))
+                .orderBy(person.id.asc()).list(person.id);
+        container.addContainerFilter(new Compare.Equal("lastName", "Smith"));
+        container.addContainerFilter(new Or(new PredicateFilter(person.primitiveDouble.lt(0.5)),
+                new SimpleStringFilter("firstName", "A", false, true)));
+        container.sort(person.id.asc());
+        assertEquals(ids.size(), container.size());
+        assertEquals(ids, container.getItemIds());
+        for (Long id : ids) {
+            assertTrue(container.containsId(id));
+        }
+        for (Person p : DataGenerator.getTestDataSortedByPrimaryKey()) {
+            if (!ids.contains(p.getId())) {
+                assertFalse(container.containsId(p.getId()));
+            }
+        }
+    }
+
+    @Test
+    public void testSize_LargeIn() {
+        List<Long> ids = new ArrayList<Long>(50000);
+        for (Person p : DataGenerator.getFilteredTestDataSortedByPrimaryKey()) {
+            ids.add(p.getId());
+        }
+        for (long i = 1; ids.size() < 50000; i++) {
+            ids.add(-i);
+        }
+        container.addContainerFilter(person.id.in(ids));
+        assertEquals(DataGenerator.getFilteredTestDataSortedByPrimaryKey().size(), container.size());
+
+        container.removeContainerFilter(person.id.in(ids));
+        container.addContainerFilter(person.id.notIn(ids));
+        assertEquals(DataGenerator.getTestDataSortedByPrimaryKey().size()
+                - DataGenerator.getFilteredTestDataSortedByPrimaryKey().size(), container.size());
+    }
+
+    @Test
+    public void testSize_Cached() {
+        QuerydslEntityProvider<Person> provider = (QuerydslEntityProvider<Person>) container.getEntityProvider();
+        provider.setCountCacheTimeout(60000);
+        container.addContainerFilter(person.lastName.startsWith("S"));
+        assertEquals(100, container.size());
+
+        Person p = new Person();
+        p.setFirstName("Count");
+        p.setLastName("Smith");
+        entityManager.getTransaction().begin();
+        entityManager.persist(p);
+        entityManager.getTransaction().commit();
+        try {
+            assertEquals(100, container.size());
+            container.refresh();
+            assertEquals(101, container.size());
+        } finally {
+            entityManager.getTransaction().begin();
+            entityManager.remove(p);
+            entityManager.getTransaction().commit();
+        }
+    }
+
+    @Test
+    public void testSize_Estimated() {
+        QuerydslEntityProvider<Person> provider = (QuerydslEntityProvider<Person>) container.getEntityProvider();
+        provider.setCountEstimation(true);
+        assertEquals(QuerydslEntityProvider.DEFAULT_ESTIMATION_TIMEOUT, provider.getCountCacheTimeout());
+        provider.setExecutor(MoreExecutors.sameThreadExecutor());
+        provider.setCallbackExecutor(MoreExecutors.sameThreadExecutor());
+        assertEquals(500, container.size());
+        // new predicates are not estimated from the counts of others
+        container.addContainerFilter(person.lastName.startsWith("S"));
+        assertEquals(100, container.size());
+
+        final List<ItemSetChangeEvent> events = new ArrayList<ItemSetChangeEvent>();
+        container.addListener(new ItemSetChangeListener() {
+            public void containerItemSetChange(ItemSetChangeEvent event) {
+                events.add(event);
+            }
+        });
+        Person p = new Person();
+        p.setFirstName("Estimate");
+        p.setLastName("Smith");
+        entityManager.getTransaction().begin();
+        entityManager.persist(p);
+        entityManager.getTransaction().commit();
+        try {
+            provider.invalidate();
+            assertEquals(100, container.size());
+            assertEquals(1, events.size());
+            // the refined count is cached
+            assertEquals(101, container.size());
+            assertEquals(101, container.size());
+            assertEquals(1, events.size());
+        } finally {
+            entityManager.getTransaction().begin();
+            entityManager.remove(p);
+            entityManager.getTransaction().commit();
+        }
+    }
+
+    @Test
+    public void testSize_Estimated_WithoutCallbackExecutor() {
+        QuerydslEntityProvider<Person> provider = (QuerydslEntityProvider<Person>) container.getEntityProvider();
+        provider.setCountEstimation(true);
+        provider.setExecutor(MoreExecutors.sameThreadExecutor());
+        assertEquals(500, container.size());
+        final List<ItemSetChangeEvent> events = new ArrayList<ItemSetChangeEvent>();
+        container.addListener(new ItemSetChangeListener() {
+            public void containerItemSetChange(ItemSetChangeEvent event) {
+                events.add(event);
+            }
+        });
+        Person p = new Person();
+        p.setFirstName("Estimate");
+        p.setLastName("Smith");
+        entityManager.getTransaction().begin();
+        entityManager.persist(p);
+        entityManager.getTransaction().commit();
+        try {
+            provider.invalidate();
+            assertEquals(500, container.size());
+            assertEquals(501, container.size());
+            // the background thread doesn't hold the session lock
+            assertTrue(events.isEmpty());
+        } finally {
+            entityManager.getTransaction().begin();
+            entityManager.remove(p);
+            entityManager.getTransaction().commit();
+        }
+    }
+
+    @Test
+    public void testNegatedConjunction_Nulls() {
+        Person p = entityManager.find(Person.class, DataGenerator.getTestDataSortedByPrimaryKey().get(0).getId());
+        String firstName = p.getFirstName();
+        entityManager.getTransaction().begin();
+        p.setFirstName(null);
+        entityManager.getTransaction().commit();
+        try {
+            // true for the row without a first name
+            container.addContainerFilter(person.firstName.isNotNull().and(person.firstName.eq("Hello")).not());
+            assertEquals(500, container.size());
+            assertTrue(container.containsId(p.getId()));
+        } finally {
+            entityManager.getTransaction().begin();
+            p.setFirstName(firstName);
+            entityManager.getTransaction().commit();
+        }
+    }
+
+    @Test
+    public void testGetIdByIndex_Sorted() {
+        List<Person> persons = DataGenerator.getFilteredTestDataSortedByName();
+        container.addContainerFilter(person.lastName.startsWith("S"));
+        container.sort(person.lastName.asc(), person.firstName.asc());
+        for (int i = 0; i < persons.size(); i += 7) {
+            assertEquals(persons.get(i).getId(), container.getIdByIndex(i));
+        }
+    }
+
+    @Test
+    public void testGetIdByIndex_Keyset() {
+        QuerydslEntityProvider<Person> provider = (QuerydslEntityProvider<Person>) container.getEntityProvider();
+        provider.setKeysetPagination(true);
+        provider.setPageSize(20);
+        List<Person> persons = DataGenerator.getTestDataSortedByName();
+        container.sort(person.lastName.asc(), person.firstName.asc());
+        // sequential scrolling
+        for (int i = 0; i < 100; i++) {
+            assertEquals(persons.get(i).getId(), container.getIdByIndex(i));
+        }
+        // random jumps
+        assertEquals(persons.get(453).getId(), container.getIdByIndex(453));
+        assertEquals(persons.get(207).getId(), container.getIdByIndex(207));
+        assertEquals(persons.get(499).getId(), container.getIdByIndex(499));
+        assertEquals(null, container.getIdByIndex(500));
+    }
+
+    @Test
+    public void testGetIdByIndex_Keyset_Seek() {
+        QuerydslEntityProvider<Person> provider = (QuerydslEntityProvider<Person>) container.getEntityProvider();
+        provider.setKeysetPagination(true);
+        provider.setPageSize(20);
+        // primitives and identifiers can't be null
+        container.sort(person.primitiveDouble.asc());
+        List<Person> persons = DataGenerator.getTestDataSortedByPrimaryKey();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(persons.get(i).getId(), container.getIdByIndex(i));
+        }
+        assertEquals(persons.get(453).getId(), container.getIdByIndex(453));
+        assertEquals(persons.get(1).getId(), container.nextItemId(persons.get(0).getId()));
+    }
+
+    @Test
+    public void testGetIdByIndex_Keyset_Nulls() {
+        List<Person> persons = DataGenerator.getTestDataSortedByPrimaryKey();
+        Map<Long, Date> dates = new HashMap<Long, Date>();
+        entityManager.getTransaction().begin();
+        for (int i = 0; i < persons.size(); i += 3) {
+            Person p = entityManager.find(Person.class, persons.get(i).getId());
+            dates.put(p.getId(), p.getDateOfBirth());
+            p.setDateOfBirth(null);
+        }
+        entityManager.getTransaction().commit();
+        try {
+            QuerydslEntityProvider<Person> provider = (QuerydslEntityProvider<Person>) container.getEntityProvider();
+            provider.setKeysetPagination(true);
+            provider.setPageSize(20);
+            // the null values are on both sides of the page boundaries
+            container.sort(person.dateOfBirth.desc());
+            List<Long> expected = new JPAQuery(entityManager).from(person)
+                    .orderBy(person.dateOfBirth.desc(), person.id.asc()).list(person.id);
+            assertEquals(expected.size(), container.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), container.getIdByIndex(i));
+            }
+            for (int i = 0; i < expected.size() - 1; i += 50) {
+                assertEquals(expected.get(i + 1), container.nextItemId(expected.get(i)));
+            }
+            // neighbours across the page boundaries
+            for (int i = 19; i < expected.size() - 1; i += 20) {
+                container.getIdByIndex(i);
+                assertEquals(expected.get(i + 1), container.nextItemId(expected.get(i)));
+                assertEquals(expected.get(i), container.prevItemId(expected.get(i + 1)));
+            }
+            assertNull(container.prevItemId(expected.get(0)));
+            assertNull(container.nextItemId(expected.get(expected.size() - 1)));
+        } finally {
+            entityManager.getTransaction().begin();
+            for (Map.Entry<Long, Date> entry : dates.entrySet()) {
+                entityManager.find(Person.class, entry.getKey()).setDateOfBirth(entry.getValue());
+            }
+            entityManager.getTransaction().commit();
+        }
+    }
+
+    @Test
+    public void testNextAndPrevItemId() {
+        List<Person> persons = DataGenerator.getTestDataSortedByName();
+        container.sort(person.lastName.asc(), person.firstName.asc());
+        assertEquals(persons.get(0).getId(), container.firstItemId());
+        assertEquals(persons.get(persons.size() - 1).getId(), container.lastItemId());
+        assertEquals(persons.get(11).getId(), container.nextItemId(persons.get(10).getId()));
+        assertEquals(persons.get(9).getId(), container.prevItemId(persons.get(10).getId()));
+    }
+
+    @Test
+    public void testContainsId() {
+        Person smith = DataGenerator.getFilteredTestDataSortedByPrimaryKey().get(0);
+        Person other = DataGenerator.getTestDataSortedByPrimaryKey().get(2);
+        container.addContainerFilter(person.lastName.startsWith("S"));
+        assertTrue(container.containsId(smith.getId()));
+        assertFalse(container.containsId(other.getId()));
+    }
+
+    @Test
+    public void testProjection() {
+        Person smith = DataGenerator.getFilteredTestDataSortedByPrimaryKey().get(0);
+        container.setProjection(person.firstName, person.address.street);
+        container.addContainerFilter(person.lastName.startsWith("S"));
+        container.sort(person.firstName.asc());
+        Person row = container.getItem(container.getIdByIndex(0)).getEntity();
+        assertNotNull(row.getFirstName());
+        assertNotNull(row.getAddress().getStreet());
+        assertNull(row.getLastName());
+        assertNull(row.getAddress().getPostOffice());
+        assertNull(container.getItem(smith.getId()).getEntity().getLastName());
+
+        Person editable = container.getEditableItem(smith.getId()).getEntity();
+        assertEquals(smith.getLastName(), editable.getLastName());
+        assertEquals(smith.getAddress().getPostOffice(), editable.getAddress().getPostOffice());
+    }
+
+    @Test
+    public void testFetchJoins_Queries() {
+        List<Person> persons = DataGenerator.getTestDataSortedByPrimaryKey();
+        entityManager.getTransaction().begin();
+        for (int i = 0; i < 20; i++) {
+            entityManager.find(Person.class, persons.get(i).getId()).setManager(
+                    entityManager.find(Person.class, persons.get(20 + i).getId()));
+        }
+        entityManager.getTransaction().commit();
+        try {
+            int fetched = countPageQueries(true);
+            int unfetched = countPageQueries(false);
+            // one query per manager without the fetch join
+            assertTrue(fetched + " vs " + unfetched, unfetched - fetched >= 20);
+        } finally {
+            entityManager.getTransaction().begin();
+            for (int i = 0; i < 20; i++) {
+                entityManager.find(Person.class, persons.get(i).getId()).setManager(null);
+            }
+            entityManager.getTransaction().commit();
+        }
+    }
+
+    private int countPageQueries(boolean fetchJoins) {
+        QuerydslJPAContainer<Person> c = QuerydslJPAContainerFactory.makeNative(Person.class, entityManager);
+        QuerydslEntityProvider<Person> provider = (QuerydslEntityProvider<Person>) c.getEntityProvider();
+        provider.setFetchJoins(fetchJoins);
+        provider.setPageSize(20);
+        c.addNestedContainerProperty(person.manager.firstName);
+        c.sort(person.id.asc());
+        entityManager.clear();
+        emf.getCache().evictAll();
+        final AtomicInteger queries = new AtomicInteger();
+        SessionEventAdapter counter = new SessionEventAdapter() {
+            public void postExecuteQuery(SessionEvent event) {
+                queries.incrementAndGet();
+            }
+        };
+        SessionEventManager events = entityManager.unwrap(JpaEntityManager.class).getServerSession().getEventManager();
+        events.addListener(counter);
+        try {
+            for (int i = 0; i < 20; i++) {
+                assertNotNull(c.getItem(c.getIdByIndex(i)).getItemProperty("manager.firstName").getValue());
+            }
+        } finally {
+            events.removeListener(counter);
+        }
+        return queries.get();
+    }
+
+    @Test
+    public void testProjection_NullAssociation() {
+        List<Person> persons = DataGenerator.getTestDataSortedByPrimaryKey();
+        entityManager.getTransaction().begin();
+        Person manager = entityManager.find(Person.class, persons.get(0).getId());
+        Person employee = entityManager.find(Person.class, persons.get(1).getId());
+        employee.setManager(manager);
+        entityManager.getTransaction().commit();
+        try {
+            container.setProjection(person.firstName, person.manager.lastName);
+            container.sort(person.id.asc());
+            assertNull(container.getItem(container.getIdByIndex(0)).getEntity().getManager());
+            Person row = container.getItem(container.getIdByIndex(1)).getEntity();
+            assertEquals(manager.getId(), row.getManager().getId());
+            assertEquals(manager.getLastName(), row.getManager().getLastName());
+        } finally {
+            entityManager.getTransaction().begin();
+            employee.setManager(null);
+            entityManager.getTransaction().commit();
+        }
+    }
+
+    @Test
+    public void testFetchPlan() {
+        PathBuilder<Person> entity = new PathBuilder<Person>(Person.class, "person");
+        FetchPlan<Person> plan = new FetchPlan<Person>(entity, emf.getMetamodel(), Arrays.asList(
+                "address.street", "manager.firstName", "manager.manager.address.street", "skills"), false);
+        assertEquals("select person\n" +
+                "from Person person\n" +
+                "  left join fetch person.manager as manager_\n" +
+                "  left join fetch manager_.manager as manager_manager_",
+                plan.fetch(new JPAQuery().from(entity)).toString());
+
+        plan = new FetchPlan<Person>(entity, emf.getMetamodel(), Arrays.asList("skills"), true);
+        assertEquals("select distinct person\n" +
+                "from Person person\n" +
+                "  left join fetch person.skills as skills_",
+                plan.fetch(new JPAQuery().from(entity)).toString());
+
+        Person smith = DataGenerator.getFilteredTestDataSortedByPrimaryKey().get(0);
+        ((QuerydslEntityProvider<Person>) container.getEntityProvider()).setCollectionFetching(true);
+        container.addNestedContainerProperty(person.manager.firstName);
+        container.addContainerFilter(person.id.eq(smith.getId()));
+        assertEquals(smith.getId(), container.getIdByIndex(0));
+        assertNotNull(container.getItem(smith.getId()).getItemProperty("manager.firstName"));
+        assertEquals(smith.getSkills().size(), container.getItem(smith.getId()).getEntity().getSkills().size());
+    }
+
+    @Test
+    public void testReadOnly() {
+        EntityManager readOnlyEntityManager = emf.createEntityManager();
+        try {
+            QuerydslJPAContainer<Person> readOnly = QuerydslJPAContainerFactory.makeReadOnly(
+                    Person.class, readOnlyEntityManager);
+            QuerydslEntityProvider<Person> provider = (QuerydslEntityProvider<Person>) readOnly.getEntityProvider();
+            provider.setPageSize(10);
+            provider.setClearInterval(2);
+            readOnly.sort(person.lastName.asc(), person.firstName.asc());
+            List<Person> persons = DataGenerator.getTestDataSortedByName();
+            for (int i = 0; i < persons.size(); i += 10) {
+                Object id = readOnly.getIdByIndex(i);
+                assertEquals(persons.get(i).getId(), id);
+                assertEquals(persons.get(i).getLastName(), readOnly.getItem(id).getEntity().getLastName());
+            }
+            assertTrue(readOnly.isReadOnly());
+            assertTrue(readOnly.getItem(persons.get(0).getId()).getItemProperty("lastName").isReadOnly());
+            try {
+                readOnly.setReadOnly(false);
+                fail();
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+            try {
+                provider.addEntity(new Person());
+                fail();
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+        } finally {
+            readOnlyEntityManager.close();
+        }
+    }
+
+    @Test
+    public void testEvictionWindow() {
+        EntityManager scrollingEntityManager = emf.createEntityManager();
+        try {
+            QuerydslJPAContainer<Person> scrolling = QuerydslJPAContainerFactory.makeNative(
+                    Person.class, scrollingEntityManager);
+            QuerydslEntityProvider<Person> provider = (QuerydslEntityProvider<Person>) scrolling.getEntityProvider();
+            provider.setEntitiesDetached(false);
+            provider.setPageSize(10);
+            provider.setEvictionWindow(1);
+            provider.setEvictionBatch(20);
+            scrolling.sort(person.lastName.asc(), person.firstName.asc());
+            Person first = scrolling.getItem(scrolling.getIdByIndex(0)).getEntity();
+            assertTrue(scrollingEntityManager.contains(first));
+            for (int i = 0; i < 50; i++) {
+                scrolling.getItem(scrolling.getIdByIndex(i));
+            }
+            assertFalse(scrollingEntityManager.contains(first));
+            assertTrue(scrollingEntityManager.contains(scrolling.getItem(scrolling.getIdByIndex(49)).getEntity()));
+        } finally {
+            scrollingEntityManager.close();
+        }
+    }
+
+    @Test
+    public void testEvictionWindow_Modified() {
+        EntityManager scrollingEntityManager = emf.createEntityManager();
+        try {
+            QuerydslJPAContainer<Person> scrolling = QuerydslJPAContainerFactory.makeNative(
+                    Person.class, scrollingEntityManager);
+            QuerydslEntityProvider<Person> provider = (QuerydslEntityProvider<Person>) scrolling.getEntityProvider();
+            provider.setEntitiesDetached(false);
+            provider.setPageSize(10);
+            provider.setEvictionWindow(1);
+            provider.setEvictionBatch(20);
+            scrolling.setBuffered(true);
+            scrolling.sort(person.lastName.asc(), person.firstName.asc());
+            EntityItem<Person> modified = scrolling.getItem(scrolling.getIdByIndex(0));
+            modified.getItemProperty("firstName").setValue("Modified");
+            Person unmodified = scrolling.getItem(scrolling.getIdByIndex(1)).getEntity();
+            assertTrue(scrolling.isModified());
+            // scrolls past the window with the pending modification
+            for (int i = 0; i < 50; i++) {
+                scrolling.getItem(scrolling.getIdByIndex(i));
+            }
+            assertTrue(scrollingEntityManager.contains(modified.getEntity()));
+            assertEquals("Modified", modified.getEntity().getFirstName());
+            assertFalse(scrollingEntityManager.contains(unmodified));
+        } finally {
+            scrollingEntityManager.close();
+        }
+    }
+
+    @Test
+    public void testPrefetching() {
+        QuerydslEntityProvider<Person> provider = (QuerydslEntityProvider<Person>) container.getEntityProvider();
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        provider.setExecutor(new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        provider.setPrefetching(true);
+        provider.setKeysetPagination(true);
+        provider.setPageSize(20);
+        List<Person> persons = DataGenerator.getTestDataSortedByName();
+        container.sort(person.lastName.asc(), person.firstName.asc());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(persons.get(i).getId(), container.getIdByIndex(i));
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            tasks.clear();
+        }
+        // scrolling back
+        for (int i = 99; i >= 0; i--) {
+            assertEquals(persons.get(i).getId(), container.getIdByIndex(i));
+        }
+
+        // sorting cancels the pending prefetches
+        tasks.clear();
+        container.getIdByIndex(300);
+        assertEquals(2, tasks.size());
+        container.sort(person.firstName.asc());
+        assertTrue(((Future<?>) tasks.get(0)).isCancelled());
+        assertTrue(((Future<?>) tasks.get(1)).isCancelled());
+    }
+
+    @Test
+    public void testNewExecutor_Discards() throws Exception {
+        Executor executor = QuerydslEntityProvider.newExecutor(1, 1);
+        final CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        FutureTask<Void> running = new FutureTask<Void>(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, null);
+        FutureTask<Void> queued = new FutureTask<Void>(new Runnable() {
+            public void run() {}
+        }, null);
+        FutureTask<Void> discarded = new FutureTask<Void>(new Runnable() {
+            public void run() {}
+        }, null);
+        executor.execute(running);
+        started.await();
+        executor.execute(queued);
+        executor.execute(discarded);
+        assertTrue(discarded.isCancelled());
+        release.countDown();
+        queued.get(5, TimeUnit.SECONDS);
+        assertFalse(queued.isCancelled());
+    }
+
+    @Test
+    public void testHierarchy() {
+        List<Person> persons = DataGenerator.getTestDataSortedByName();
+        entityManager.getTransaction().begin();
+        Person root = entityManager.find(Person.class, persons.get(0).getId());
+        Person child1 = entityManager.find(Person.class, persons.get(1).getId());
+        Person child2 = entityManager.find(Person.class, persons.get(2).getId());
+        Person grandChild = entityManager.find(Person.class, persons.get(3).getId());
+        child1.setManager(root);
+        child2.setManager(root);
+        grandChild.setManager(child1);
+        entityManager.getTransaction().commit();
+        try {
+            QuerydslEntityProvider<Person> provider = (QuerydslEntityProvider<Person>) container.getEntityProvider();
+            provider.setHierarchyLevels(2);
+            container.setParentProperty("manager");
+            container.sort(person.lastName.asc(), person.firstName.asc());
+            assertEquals(Arrays.asList(child1.getId(), child2.getId()), container.getChildren(root.getId()));
+            assertEquals(Arrays.asList(grandChild.getId()), container.getChildren(child1.getId()));
+            assertTrue(container.hasChildren(child1.getId()));
+            assertFalse(container.hasChildren(child2.getId()));
+            assertTrue(container.rootItemIds().contains(root.getId()));
+            assertFalse(container.rootItemIds().contains(child1.getId()));
+            // counted via the deepest loaded level
+            assertFalse(container.hasChildren(grandChild.getId()));
+            // counted via the loaded page
+            assertEquals(root.getId(), container.getIdByIndex(0));
+            assertTrue(container.hasChildren(container.getIdByIndex(0)));
+            assertFalse(container.hasChildren(container.getIdByIndex(4)));
+
+            container.addContainerFilter(person.id.ne(child1.getId()));
+            assertEquals(Arrays.asList(child2.getId()), container.getChildren(root.getId()));
+        } finally {
+            entityManager.getTransaction().begin();
+            child1.setManager(null);
+            child2.setManager(null);
+            grandChild.setManager(null);
+            entityManager.getTransaction().commit();
+        }
+    }
+
+    @Test
+    public void testForEach() {
+        QuerydslEntityProvider<Person> provider = (QuerydslEntityProvider<Person>) container.getEntityProvider();
+        provider.setStreamClearInterval(7);
+        container.addContainerFilter(person.lastName.startsWith("S"));
+        container.sort(person.lastName.asc(), person.firstName.asc());
+        final List<Object> ids = new ArrayList<Object>();
+        container.forEach(new EntityCallback<Person>() {
+            public void handle(Person entity) {
+                ids.add(entity.getId());
+            }
+        });
+        List<Object> expected = new ArrayList<Object>();
+        for (Person p : DataGenerator.getFilteredTestDataSortedByName()) {
+            expected.add(p.getId());
+        }
+        assertEquals(expected, ids);
+    }
+
+    @Test
+    public void testStream_Projection() {
+        container.setProjection(person.firstName, person.address.street);
+        container.sort(person.lastName.asc(), person.firstName.asc());
+        List<Person> persons = DataGenerator.getTestDataSortedByName();
+        CloseableIterator<Person> stream = container.stream();
+        try {
+            for (Person p : persons) {
+                Person projected = stream.next();
+                assertEquals(p.getId(), projected.getId());
+                assertEquals(p.getAddress().getStreet(), projected.getAddress().getStreet());
+                assertNull(projected.getLastName());
+            }
+            assertFalse(stream.hasNext());
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testExport() throws IOException {
+        container.addContainerFilter(person.lastName.startsWith("S"));
+        container.sort(person.lastName.asc(), person.firstName.asc());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long count = DelimitedExporter.CSV.export(container, out,
+                person.firstName, person.lastName, person.address.street, person.manager.lastName);
+        List<Person> persons = DataGenerator.getFilteredTestDataSortedByName();
+        assertEquals(persons.size(), count);
+        String[] lines = out.toString("UTF-8").split("\r\n");
+        assertEquals(persons.size() + 1, lines.length);
+        assertEquals("firstName,lastName,address.street,manager.lastName", lines[0]);
+        for (int i = 0; i < persons.size(); i++) {
+            Person p = persons.get(i);
+            String manager = p.getManager() != null ? p.getManager().getLastName() : "";
+            assertEquals(p.getFirstName() + "," + p.getLastName() + ","
+                    + p.getAddress().getStreet() + "," + manager, lines[i + 1]);
+        }
+    }
+
+    @Test
+    public void testAggregate() {
+        container.addContainerFilter(person.lastName.startsWith("S"));
+        double sum = 0.0;
+        for (Person p : DataGenerator.getFilteredTestDataSortedByName()) {
+            sum += p.getPrimitiveDouble();
+        }
+        int count = DataGenerator.getFilteredTestDataSortedByName().size();
+        Tuple totals = container.aggregate(person.primitiveDouble.sum(), person.primitiveDouble.avg(), person.count());
+        assertEquals(sum, totals.get(person.primitiveDouble.sum()), 0.0001);
+        assertEquals(sum / count, totals.get(person.primitiveDouble.avg()), 0.0001);
+        assertEquals(Long.valueOf(count), totals.get(person.count()));
+        // cached
+        assertSame(totals, container.aggregate(person.primitiveDouble.sum(), person.primitiveDouble.avg(), person.count()));
+        assertEquals(Long.valueOf(count), container.aggregate(person.count()));
+
+        container.addContainerFilter(person.lastName.eq("none"));
+        assertNull(container.aggregate(person.primitiveDouble.sum()));
+        assertEquals(Long.valueOf(0), container.aggregate(person.count()));
+    }
+
+    @Test
+    public void testAggregate_GroupBy() {
+        Map<String, Long> expected = new TreeMap<String, Long>();
+        for (Person p : DataGenerator.getTestDataSortedByPrimaryKey()) {
+            Long count = expected.get(p.getLastName());
+            expected.put(p.getLastName(), count != null ? count + 1 : 1);
+        }
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        List<String> lastNames = new ArrayList<String>();
+        for (Tuple row : container.groupBy(person.lastName, person.count())) {
+            lastNames.add(row.get(person.lastName));
+            counts.put(row.get(person.lastName), row.get(person.count()));
+        }
+        assertEquals(expected, counts);
+        assertEquals(new ArrayList<String>(expected.keySet()), lastNames);
+    }
+
+    @Test
+    public void testAggregate_NonNative() {
+        QuerydslJPAContainer<Person> nonNative = QuerydslJPAContainerFactory.make(Person.class, entityManager);
+        nonNative.addContainerFilter(person.lastName.startsWith("S"));
+        nonNative.addContainerFilter(new Compare.Greater("primitiveDouble", 0.5));
+        JPAQuery query = new JPAQuery(entityManager).from(person)
+                .where(person.lastName.startsWith("S"), person.primitiveDouble.gt(0.5));
+        Tuple expected = query.uniqueResult(person.primitiveDouble.sum(), person.count());
+        Tuple totals = nonNative.aggregate(person.primitiveDouble.sum(), person.count());
+        assertEquals(expected.get(person.primitiveDouble.sum()), totals.get(person.primitiveDouble.sum()), 0.0001);
+        assertEquals(expected.get(person.count()), totals.get(person.count()));
+
+        container.addContainerFilter(person.lastName.startsWith("S"));
+        container.addContainerFilter(new Compare.Greater("primitiveDouble", 0.5));
+        assertEquals(container.groupBy(person.lastName, person.count()),
+                nonNative.groupBy(person.lastName, person.count()));
+    }
+
+    @Test
+    public void testAggregate_Refresh() {
+        container.addContainerFilter(person.lastName.startsWith("S"));
+        Long count = container.aggregate(person.count());
+
+        Person p = new Person();
+        p.setFirstName("Aggregate");
+        p.setLastName("Smith");
+        entityManager.getTransaction().begin();
+        entityManager.persist(p);
+        entityManager.getTransaction().commit();
+        try {
+            assertEquals(count, container.aggregate(person.count()));
+            container.refresh();
+            assertEquals(Long.valueOf(count + 1), container.aggregate(person.count()));
+        } finally {
+            entityManager.getTransaction().begin();
+            entityManager.remove(p);
+            entityManager.getTransaction().commit();
+        }
+    }
+
+}
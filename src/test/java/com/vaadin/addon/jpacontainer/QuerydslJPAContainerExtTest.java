@@ -23,6 +23,7 @@ import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
@@ -318,4 +319,63 @@ public class QuerydslJPAContainerExtTest {
 
         verify(entityProviderMock);
     }
+
+    @Test
+    public void testSetContainerFilters() {
+        QPerson person = QPerson.person;
+        final int[] events = new int[1];
+        container.addListener(new ItemSetChangeListener() {
+
+            public void containerItemSetChange(ItemSetChangeEvent event) {
+                assertTrue(event instanceof JPAContainer.FiltersAppliedEvent);
+                events[0]++;
+            }
+        });
+        replay(entityProviderMock);
+        container.setEntityProvider(entityProviderMock);
+
+        container.setContainerFilters(Arrays.asList(person.firstName.eq("Hello"),
+                person.lastName.eq("World"), person.primitiveDouble.gt(1.0)));
+        assertEquals(1, events[0]);
+        assertEquals(3, container.getAppliedFilters().size());
+
+        container.setContainerFilters(Arrays.asList(person.firstName.eq("Hello"),
+                person.lastName.eq("Smith")));
+        assertEquals(2, events[0]);
+        assertEquals(2, container.getAppliedFilters().size());
+        assertTrue(container.getAppliedFilters().contains(new Equal("lastName", "Smith")));
+        assertFalse(container.hasUnappliedFilters());
+
+        // unchanged filters are not reapplied
+        container.setContainerFilters(Arrays.asList(person.lastName.eq("Smith"),
+                person.firstName.eq("Hello")));
+        assertEquals(2, events[0]);
+
+        verify(entityProviderMock);
+    }
+
+    @Test
+    public void testAddContainerFilter_TranslationCache() {
+        QPerson person = QPerson.person;
+        FilterTranslationCache cache = new FilterTranslationCache(10);
+        container.setTranslationCache(cache);
+
+        container.addContainerFilter(person.firstName.eq("Hello"));
+        container.removeContainerFilter(person.firstName.eq("Hello"));
+        container.addContainerFilter(person.firstName.eq("Hello"));
+
+        assertTrue(container.getFilters().contains(new Equal("firstName", "Hello")));
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testAddNestedContainerProperty() {
+        QPerson person = QPerson.person;
+        container.addNestedContainerProperty(person.address.street);
+        assertTrue(container.getContainerPropertyIds().contains("address.street"));
+        assertSame(PathResolver.getPropertyId(person.address.street),
+                PathResolver.getPropertyId(person.address.street));
+    }
 }
@@ -17,6 +17,7 @@
 package com.vaadin.addon.jpacontainer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
 import javax.persistence.EntityManager;
@@ -64,6 +65,15 @@ public class QuerydslJPAContainerFactoryTest {
         assertEquals(CachingMutableLocalEntityProvider.class, c.getEntityProvider().getClass());
         EntityManager entityManagerOfProvider = ((CachingMutableLocalEntityProvider<?>) c.getEntityProvider()).getEntityManager();
         assertNotNull(entityManagerOfProvider);
+        // the persistence unit registry is opt-in
+        assertFalse(PersistenceUnitRegistry.DEFAULT.contains("eclipselink-in-memory"));
+    }
+
+    @Test
+    public void testCreateNativeJPAContainerHasCorrectEntityProvider() {
+        JPAContainer<Person> c = QuerydslJPAContainerFactory.makeNative(Person.class, entityManager);
+        assertEquals(QuerydslEntityProvider.class, c.getEntityProvider().getClass());
+        assertEquals(entityManager, ((QuerydslEntityProvider<?>) c.getEntityProvider()).getEntityManager());
     }
 
     @Test
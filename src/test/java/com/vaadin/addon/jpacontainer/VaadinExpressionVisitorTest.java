@@ -0,0 +1,111 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.mysema.query.types.Operation;
+import com.mysema.query.types.Operator;
+import com.mysema.query.types.Ops;
+import com.mysema.query.types.Predicate;
+import com.vaadin.addon.jpacontainer.testdata.QPerson;
+import com.vaadin.data.util.filter.And;
+import com.vaadin.data.util.filter.Compare.Equal;
+import com.vaadin.data.util.filter.Compare.Greater;
+import com.vaadin.data.util.filter.Not;
+import com.vaadin.data.util.filter.Or;
+import com.vaadin.data.util.filter.SimpleStringFilter;
+
+public class VaadinExpressionVisitorTest {
+
+    private final QPerson person = QPerson.person;
+
+    private Object translate(Predicate predicate) {
+        return predicate.accept(VaadinExpressionVisitor.DEFAULT, null);
+    }
+
+    @Test
+    public void testAndOr() {
+        assertEquals(
+                new Or(new And(new Equal("firstName", "Hello"), new Not(new Equal("lastName", "World"))),
+                       new Greater("primitiveDouble", 1.0)),
+                translate(person.firstName.eq("Hello").and(person.lastName.ne("World"))
+                        .or(person.primitiveDouble.gt(1.0))));
+    }
+
+    @Test
+    public void testNestedPath() {
+        assertEquals(new Equal("address.street", "Main Street"),
+                translate(person.address.street.eq("Main Street")));
+    }
+
+    @Test
+    public void testIn() {
+        assertEquals(new Or(new Equal("lastName", "Smith"), new Equal("lastName", "Smart")),
+                translate(person.lastName.in("Smith", "Smart")));
+        assertEquals(new Not(new Or(new Equal("lastName", "Smith"), new Equal("lastName", "Smart"))),
+                translate(person.lastName.notIn("Smith", "Smart")));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testIn_TooLarge() {
+        List<Long> ids = new ArrayList<Long>();
+        for (long i = 0; i <= VaadinExpressionVisitor.MAX_IN_SIZE; i++) {
+            ids.add(i);
+        }
+        translate(person.id.in(ids));
+    }
+
+    @Test
+    public void testInChunker() {
+        List<Long> ids = new ArrayList<Long>();
+        for (long i = 0; i < 25; i++) {
+            ids.add(i);
+        }
+        assertEquals(person.id.in(ids.subList(0, 10))
+                        .or(person.id.in(ids.subList(10, 20)))
+                        .or(person.id.in(ids.subList(20, 25))),
+                InChunker.chunk(person.id.in(ids), 10));
+        Predicate small = person.id.in(ids).and(person.firstName.isNull());
+        assertSame(small, InChunker.chunk(small, 100));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testUnsupported() {
+        translate(person.lastName.endsWith("son"));
+    }
+
+    @Test
+    public void testCustomTranslator() {
+        Map<Operator<?>, OperationTranslator> translators = VaadinExpressionVisitor.getDefaultTranslators();
+        translators.put(Ops.ENDS_WITH, new OperationTranslator() {
+            public Object translate(Operation<?> expr, VaadinExpressionVisitor visitor) {
+                return new SimpleStringFilter(visitor.handle(expr, 0), "son", false, false);
+            }
+        });
+        VaadinExpressionVisitor visitor = new VaadinExpressionVisitor(translators);
+        assertEquals(new SimpleStringFilter("lastName", "son", false, false),
+                person.lastName.endsWith("son").accept(visitor, null));
+    }
+
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright 2014 Mysema Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vaadin.addon.jpacontainer.testdata;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Deque;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.persistence.EntityManager;
+
+/**
+ * ScalableDataGenerator streams an arbitrary number of persons in the style of
+ * {@link DataGenerator} into the database. The persons are persisted in batches, each batch in
+ * its own transaction, and the persistence context is cleared after each batch, so the heap
+ * usage doesn't grow with the number of rows.
+ *
+ * <p>The distribution of the last names can be skewed, and each person can be given skills and
+ * a manager in a tree of the given fan-out and depth.</p>
+ *
+ * <p>Use {@link #batchWriting(int)} as properties of the entity manager factory to send the
+ * inserts of a batch in JDBC batches.</p>
+ *
+ * @author tiwe
+ *
+ */
+public class ScalableDataGenerator {
+
+    private static final String[] firstNames = { "John", "Maxwell", "Joe", "Bob",
+            "Eve", "Alice", "Scrooge", "Donald", "Mick", "Zandra" };
+
+    private static final String[] lastNames = { "Smith", "Smart", "Cool", "Thornton",
+            "McDuck", "Lee", "Anderson", "Zucker", "Jackson", "Gordon" };
+
+    private static final String[] streets = { "Magna Avenue", "Fringilla Street",
+            "Aliquet St.", "Pharetra Avenue", "Gravida St.", "Risus Street",
+            "Ultricies Street", "Mi Avenue", "Libero Av.", "Purus Avenue" };
+
+    private static final String[] postOffices = { "Stockholm", "Helsinki", "Paris",
+            "London", "Luxemburg", "Duckburg", "New York", "Tokyo", "Athens",
+            "Sydney" };
+
+    // dates of birth are generated between 1920 and 2010, within the range of any DATE column
+    private static final long MIN_DATE_OF_BIRTH = new GregorianCalendar(1920, Calendar.JANUARY, 1).getTimeInMillis();
+
+    private static final long MAX_DATE_OF_BIRTH = new GregorianCalendar(2011, Calendar.JANUARY, 1).getTimeInMillis();
+
+    private int batchSize = 1000;
+
+    private long seed = 1;
+
+    private int distinctLastNames = lastNames.length;
+
+    private double lastNameSkew;
+
+    private int skills;
+
+    private int skillsPerPerson;
+
+    private int managerFanOut;
+
+    private int managerDepth;
+
+    /**
+     * Get the entity manager factory properties for JDBC batch writing with EclipseLink and
+     * Hibernate
+     *
+     * @param batchSize
+     * @return
+     */
+    public static Map<String, Object> batchWriting(int batchSize) {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("eclipselink.jdbc.batch-writing", "JDBC");
+        properties.put("eclipselink.jdbc.batch-writing.size", String.valueOf(batchSize));
+        properties.put("hibernate.jdbc.batch_size", String.valueOf(batchSize));
+        properties.put("hibernate.order_inserts", "true");
+        return properties;
+    }
+
+    /**
+     * Set the amount of persons per batch, defaults to 1000
+     *
+     * @param batchSize
+     * @return
+     */
+    public ScalableDataGenerator batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public ScalableDataGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Set the amount of distinct last names, defaults to 10. The first ten names are the last
+     * names of {@link DataGenerator}.
+     *
+     * @param distinctLastNames
+     * @return
+     */
+    public ScalableDataGenerator distinctLastNames(int distinctLastNames) {
+        this.distinctLastNames = distinctLastNames;
+        return this;
+    }
+
+    /**
+     * Set the exponent of the Zipf distribution of the last names. With the default 0 the last
+     * names are assigned round robin, with 1 the first name is twice as common as the second
+     * and three times as common as the third.
+     *
+     * @param lastNameSkew
+     * @return
+     */
+    public ScalableDataGenerator lastNameSkew(double lastNameSkew) {
+        this.lastNameSkew = lastNameSkew;
+        return this;
+    }
+
+    /**
+     * Give each person the given amount of distinct skills out of the given amount of skills
+     *
+     * @param skills
+     * @param skillsPerPerson
+     * @return
+     */
+    public ScalableDataGenerator skills(int skills, int skillsPerPerson) {
+        if (skillsPerPerson > skills) {
+            throw new IllegalArgumentException("skillsPerPerson needs to be at most " + skills);
+        }
+        this.skills = skills;
+        this.skillsPerPerson = skillsPerPerson;
+        return this;
+    }
+
+    /**
+     * Organize the persons into manager trees, in which each manager has the given amount of
+     * subordinates and each tree has the given depth
+     *
+     * @param fanOut
+     * @param depth
+     * @return
+     */
+    public ScalableDataGenerator managers(int fanOut, int depth) {
+        this.managerFanOut = fanOut;
+        this.managerDepth = depth;
+        return this;
+    }
+
+    /**
+     * Persist the given amount of persons
+     *
+     * @param entityManager
+     * @param rows
+     */
+    public void persist(EntityManager entityManager, long rows) {
+        Random rnd = new Random(seed);
+        long[] skillIds = persistSkills(entityManager);
+        double[] lastNameDistribution = lastNameSkew > 0 ? createZipfDistribution() : null;
+        // the ids of the current managers and their remaining subordinates
+        Deque<long[]> managers = new ArrayDeque<long[]>();
+        entityManager.getTransaction().begin();
+        for (long i = 0; i < rows; i++) {
+            Person p = createPerson(rnd, i, lastNameDistribution);
+            if (managerFanOut > 0) {
+                while (!managers.isEmpty() && managers.peek()[1] == 0) {
+                    managers.pop();
+                }
+                if (!managers.isEmpty()) {
+                    managers.peek()[1]--;
+                    p.setManager(entityManager.getReference(Person.class, managers.peek()[0]));
+                }
+            }
+            entityManager.persist(p);
+            if (managerFanOut > 0 && managers.size() < managerDepth - 1) {
+                managers.push(new long[] { getId(entityManager, p), managerFanOut });
+            }
+            if (skillsPerPerson > 0) {
+                int first = rnd.nextInt(skillIds.length);
+                for (int j = 0; j < skillsPerPerson; j++) {
+                    PersonSkill skill = new PersonSkill();
+                    skill.setPerson(p);
+                    skill.setSkill(entityManager.getReference(Skill.class,
+                            skillIds[(first + j) % skillIds.length]));
+                    skill.setLevel(rnd.nextInt(5) + 1);
+                    entityManager.persist(skill);
+                }
+            }
+            if ((i + 1) % batchSize == 0) {
+                entityManager.flush();
+                entityManager.getTransaction().commit();
+                entityManager.clear();
+                entityManager.getTransaction().begin();
+            }
+        }
+        entityManager.flush();
+        entityManager.getTransaction().commit();
+        entityManager.clear();
+    }
+
+    private long[] persistSkills(EntityManager entityManager) {
+        long[] skillIds = new long[skills];
+        entityManager.getTransaction().begin();
+        for (int i = 0; i < skills; i++) {
+            Skill skill = new Skill();
+            skill.setSkillName("Skill " + i);
+            entityManager.persist(skill);
+            entityManager.flush();
+            skillIds[i] = skill.getId();
+        }
+        entityManager.getTransaction().commit();
+        entityManager.clear();
+        return skillIds;
+    }
+
+    private static long getId(EntityManager entityManager, Person p) {
+        if (p.getId() == null) {
+            // identity columns are assigned on flush
+            entityManager.flush();
+        }
+        return p.getId();
+    }
+
+    private double[] createZipfDistribution() {
+        double[] cumulative = new double[distinctLastNames];
+        double sum = 0;
+        for (int i = 0; i < distinctLastNames; i++) {
+            sum += 1.0 / Math.pow(i + 1, lastNameSkew);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < distinctLastNames; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    private String getLastName(Random rnd, long i, double[] distribution) {
+        int index;
+        if (distribution != null) {
+            index = Arrays.binarySearch(distribution, rnd.nextDouble());
+            index = Math.min(index >= 0 ? index : -index - 1, distinctLastNames - 1);
+        } else {
+            index = (int) (i % distinctLastNames);
+        }
+        return index < lastNames.length ? lastNames[index] : "Name " + index;
+    }
+
+    private Person createPerson(Random rnd, long i, double[] lastNameDistribution) {
+        Person p = new Person();
+        p.setFirstName(firstNames[(int) ((i / 10) % 10)] + " " + i);
+        p.setLastName(getLastName(rnd, i, lastNameDistribution));
+        p.setDateOfBirth(new Date(MIN_DATE_OF_BIRTH + (long) (rnd.nextDouble() * (MAX_DATE_OF_BIRTH - MIN_DATE_OF_BIRTH))));
+        p.setPrimitiveDouble(rnd.nextDouble());
+        p.setMale(rnd.nextBoolean());
+        p.setAddress(new Address());
+        p.getAddress().setStreet(rnd.nextInt(1000) + " " + streets[rnd.nextInt(streets.length)]);
+        p.getAddress().setPostOffice(postOffices[rnd.nextInt(postOffices.length)]);
+        StringBuilder pc = new StringBuilder();
+        for (int j = 0; j < 5; j++) {
+            pc.append(rnd.nextInt(10));
+        }
+        p.getAddress().setPostalCode(pc.toString());
+        return p;
+    }
+
+}